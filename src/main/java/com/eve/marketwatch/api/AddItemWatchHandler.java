@@ -2,20 +2,18 @@ package com.eve.marketwatch.api;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.model.dao.ItemWatch;
 import com.eve.marketwatch.model.dao.ItemWatchRepository;
 import com.eve.marketwatch.model.esi.SearchEntry;
 import com.eve.marketwatch.model.esi.UniverseIdsResponse;
 import com.eve.marketwatch.model.evepraisal.EvepraisalItem;
 import com.eve.marketwatch.model.evepraisal.EvepraisalResponse;
+import com.eve.marketwatch.service.EsiClient;
 import com.eve.marketwatch.service.SecurityService;
 import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
 import java.util.Date;
@@ -32,18 +30,18 @@ public class AddItemWatchHandler implements RequestHandler<Map<String, Object>,
     private static final Logger LOG = LogManager.getLogger(AddItemWatchHandler.class);
 
     private final ItemWatchRepository itemWatchRepository;
-    private final javax.ws.rs.client.Client webClient;
+    private final EsiClient esiClient;
     private final SecurityService securityService;
 
     public AddItemWatchHandler() {
         securityService = new SecurityService();
-        webClient = ClientBuilder.newClient();
+        esiClient = EsiClient.getInstance();
         itemWatchRepository = ItemWatchRepository.getInstance();
     }
 
-    public AddItemWatchHandler(ItemWatchRepository itemWatchRepository, Client webClient, SecurityService securityService) {
+    public AddItemWatchHandler(ItemWatchRepository itemWatchRepository, EsiClient esiClient, SecurityService securityService) {
         this.itemWatchRepository = itemWatchRepository;
-        this.webClient = webClient;
+        this.esiClient = esiClient;
         this.securityService = securityService;
     }
 
@@ -67,6 +65,14 @@ public class AddItemWatchHandler implements RequestHandler<Map<String, Object>,
                     .build();
         }
 
+        if (!ItemWatch.isSupportedMetric(watch.getMetric())) {
+            // the evaluation would treat an unknown metric as volume and compare it with e.g. a price threshold
+            LOG.info("Unsupported metric: " + watch.getMetric());
+            return ApiGatewayResponse.builder()
+                    .setStatusCode(400)
+                    .build();
+        }
+
         final int characterId = InputExtractor.getCharacterId(input);
         watch.setCharacterId(characterId);
         watch.setCreated(new Date());
@@ -96,9 +102,7 @@ public class AddItemWatchHandler implements RequestHandler<Map<String, Object>,
             evepraisalPath += ".json";
         }
 
-        final Response appraisalResponse = webClient.target("https://evepraisal.com")
-                .path("/a/" + evepraisalPath)
-                .request()
+        final Response appraisalResponse = esiClient.url("https://evepraisal.com", "/a/" + evepraisalPath)
                 .get();
 
         final String json = appraisalResponse.readEntity(String.class);
@@ -139,9 +143,7 @@ public class AddItemWatchHandler implements RequestHandler<Map<String, Object>,
     }
 
     SearchEntry getTypeId(final String typeName) throws NotFoundException {
-        final Response idResponse = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v1/universe/ids/")
-                .request()
+        final Response idResponse = esiClient.path("/v1/universe/ids/")
                 .post(Entity.entity(singletonList(typeName), "application/json"));
         final String json = idResponse.readEntity(String.class);
         if (idResponse.getStatus() != 200) {
@@ -11,6 +11,7 @@ import com.eve.marketwatch.model.dao.UserRepository;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Date;
 import java.util.Map;
 
 import static com.eve.marketwatch.api.Util.parseBody;
@@ -41,7 +42,8 @@ public class BulkNotificationHandler implements RequestHandler<Map<String, Objec
 
 	private void saveMail(BulkMailRequest mailRequest, User u) {
 		final Mail mail = new Mail();
-		mail.setPriority(2);
+		mail.setCreated(new Date());
+		mail.setPriority(Mail.PRIORITY_BULK);
 		mail.setRecipient(u.getCharacterId());
 		mail.setMailStatus(MailStatus.NEW);
 		mail.setSubject(mailRequest.getSubject());
@@ -2,19 +2,18 @@ package com.eve.marketwatch.api;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.exceptions.BadRequestException;
 import com.eve.marketwatch.exceptions.UnknownUserException;
 import com.eve.marketwatch.model.dao.Structure;
 import com.eve.marketwatch.model.dao.StructureRepository;
 import com.eve.marketwatch.model.esi.SearchResponse;
+import com.eve.marketwatch.service.EsiClient;
 import com.eve.marketwatch.service.EveAuthService;
 import com.eve.marketwatch.service.SecurityService;
 import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.Response;
 import java.util.Arrays;
 import java.util.List;
@@ -32,7 +31,7 @@ public class GetStructureIdHandler implements RequestHandler<Map<String, Object>
 
 	private final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
 
-	private final javax.ws.rs.client.Client webClient = ClientBuilder.newClient();
+	private final EsiClient esiClient = EsiClient.getInstance();
 	private final EveAuthService eveAuthService = new EveAuthService();
 	private final SecurityService securityService = new SecurityService();
 	private final StructureRepository structureRepository = StructureRepository.getInstance();
@@ -102,15 +101,14 @@ public class GetStructureIdHandler implements RequestHandler<Map<String, Object>
 
 		@Override
 		public Long call() throws Exception {
-			final Response searchResponse = webClient.target(Constants.ESI_BASE_URL)
-					.path("/v2/search/")
+			final Response searchResponse = esiClient.path("/v2/search/")
 					.queryParam("categories", "station")
 					.queryParam("search", term)
 					.queryParam("strict", true)
-					.request()
 					.get();
 
 			if (searchResponse.getStatus() != 200) {
+				searchResponse.close();
 				return null;
 			}
 
@@ -145,16 +143,15 @@ public class GetStructureIdHandler implements RequestHandler<Map<String, Object>
 				return null;
 			}
 
-			final Response searchResponse = webClient.target(Constants.ESI_BASE_URL)
-					.path("/v3/characters/" + characterId + "/search/")
+			final Response searchResponse = esiClient.path("/v3/characters/" + characterId + "/search/")
 					.queryParam("categories", "structure")
 					.queryParam("search", term)
 					.queryParam("strict", true)
-					.request()
-					.header("Authorization", "Bearer " + accessToken)
+					.bearer(accessToken)
 					.get();
 
 			if (searchResponse.getStatus() != 200) {
+				searchResponse.close();
 				return null;
 			}
 
@@ -2,14 +2,13 @@ package com.eve.marketwatch.api;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.model.esi.SearchResponse;
 import com.eve.marketwatch.model.esi.NameResponse;
+import com.eve.marketwatch.service.EsiClient;
 import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
@@ -22,7 +21,7 @@ public class ItemSearchHandler implements RequestHandler<Map<String, Object>, Ap
 
 	private static final Logger LOG = LogManager.getLogger(ItemSearchHandler.class);
 
-	private final javax.ws.rs.client.Client webClient = ClientBuilder.newClient();
+	private final EsiClient esiClient = EsiClient.getInstance();
 
 	@Override
 	public ApiGatewayResponse handleRequest(Map<String, Object> input, Context context) {
@@ -43,15 +42,14 @@ public class ItemSearchHandler implements RequestHandler<Map<String, Object>, Ap
 					.build();
 		}
 
-		final Response searchResponse = webClient.target(Constants.ESI_BASE_URL)
-				.path("/v2/search/")
+		final Response searchResponse = esiClient.path("/v2/search/")
 				.queryParam("categories", "inventory_type")
 				.queryParam("language", "en-us")
 				.queryParam("search", term)
-				.request()
 				.get();
 
 		if (searchResponse.getStatus() != 200) {
+			searchResponse.close();
 			return ApiGatewayResponse.builder()
 					.setStatusCode(404)
 					.build();
@@ -61,12 +59,11 @@ public class ItemSearchHandler implements RequestHandler<Map<String, Object>, Ap
 		System.out.println(json);
 		final SearchResponse typeIds = new GsonBuilder().create().fromJson(json, SearchResponse.class);
 
-		final Response nameResponse = webClient.target(Constants.ESI_BASE_URL)
-				.path("/v3/universe/names/")
-				.request()
+		final Response nameResponse = esiClient.path("/v3/universe/names/")
 				.post(Entity.entity(typeIds.getInventoryTypes(), "application/json"));
 
 		if (nameResponse.getStatus() != 200) {
+			nameResponse.close();
 			return ApiGatewayResponse.builder()
 					.setStatusCode(404)
 					.build();
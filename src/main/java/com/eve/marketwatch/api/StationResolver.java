@@ -1,15 +1,14 @@
 package com.eve.marketwatch.api;
 
-import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.model.dao.Structure;
 import com.eve.marketwatch.model.dao.StructureRepository;
 import com.eve.marketwatch.model.esi.SearchResponse;
 import com.eve.marketwatch.model.esi.StationInfoResponse;
+import com.eve.marketwatch.service.EsiClient;
 import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.Client;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -34,23 +33,21 @@ public class StationResolver implements Callable<List<String>> {
     private final String term;
     private final List<Structure> allKnownStructures;
     private final StructureRepository structureRepository;
-    private final javax.ws.rs.client.Client webClient;
+    private final EsiClient esiClient;
 
-    public StationResolver(String term, List<Structure> allKnownStructures, StructureRepository structureRepository, Client webClient) {
+    public StationResolver(String term, List<Structure> allKnownStructures, StructureRepository structureRepository, EsiClient esiClient) {
         this.term = term;
         this.allKnownStructures = allKnownStructures;
         this.structureRepository = structureRepository;
-        this.webClient = webClient;
+        this.esiClient = esiClient;
     }
 
     @Override
     public List<String> call() throws Exception {
-        final Response searchResponse = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v2/search/")
+        final Response searchResponse = esiClient.path("/v2/search/")
                 .queryParam("categories", "station")
                 .queryParam("search", term)
                 .queryParam("strict", false)
-                .request()
                 .get();
 
         final String json = searchResponse.readEntity(String.class);
@@ -129,9 +126,7 @@ public class StationResolver implements Callable<List<String>> {
 
         @Override
         public Structure call() throws Exception {
-            final Response nameResponse = webClient.target(Constants.ESI_BASE_URL)
-                    .path("/v2/universe/stations/" + stationId + "/")
-                    .request()
+            final Response nameResponse = esiClient.path("/v2/universe/stations/" + stationId + "/")
                     .get();
 
             final String nameJson = nameResponse.readEntity(String.class);
@@ -1,15 +1,14 @@
 package com.eve.marketwatch.api;
 
-import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.model.dao.Structure;
 import com.eve.marketwatch.model.dao.StructureRepository;
 import com.eve.marketwatch.model.esi.SearchResponse;
 import com.eve.marketwatch.model.esi.StructureInfoResponse;
+import com.eve.marketwatch.service.EsiClient;
 import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.Client;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,28 +41,26 @@ public class StructureResolver implements Callable<List<String>> {
     private final String term;
     private final List<Structure> allKnownStructures;
     private final StructureRepository structureRepository;
-    private final javax.ws.rs.client.Client webClient;
+    private final EsiClient esiClient;
     private final int characterId;
     private final String accessToken;
 
-    public StructureResolver(String term, List<Structure> allKnownStructures, StructureRepository structureRepository, Client webClient, int characterId, String accessToken) {
+    public StructureResolver(String term, List<Structure> allKnownStructures, StructureRepository structureRepository, EsiClient esiClient, int characterId, String accessToken) {
         this.term = term;
         this.allKnownStructures = allKnownStructures;
         this.structureRepository = structureRepository;
-        this.webClient = webClient;
+        this.esiClient = esiClient;
         this.characterId = characterId;
         this.accessToken = accessToken;
     }
 
     @Override
     public List<String> call() throws Exception {
-        final Response searchResponse = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v3/characters/" + characterId + "/search/")
+        final Response searchResponse = esiClient.path("/v3/characters/" + characterId + "/search/")
                 .queryParam("categories", "structure")
                 .queryParam("search", term)
                 .queryParam("strict", false)
-                .request()
-                .header("Authorization", "Bearer " + accessToken)
+                .bearer(accessToken)
                 .get();
 
         final String json = searchResponse.readEntity(String.class);
@@ -143,10 +140,8 @@ public class StructureResolver implements Callable<List<String>> {
         @Override
         public Structure call() throws Exception {
             LOG.info("Resolving name for structureId " + structureId);
-            final Response nameResponse = webClient.target(Constants.ESI_BASE_URL)
-                    .path("/v2/universe/structures/" + structureId + "/")
-                    .request()
-                    .header("Authorization", "Bearer " + accessToken)
+            final Response nameResponse = esiClient.path("/v2/universe/structures/" + structureId + "/")
+                    .bearer(accessToken)
                     .get();
             final String nameJson = nameResponse.readEntity(String.class);
             if (nameResponse.getStatus() == 200) {
@@ -6,11 +6,11 @@ import com.eve.marketwatch.exceptions.BadRequestException;
 import com.eve.marketwatch.exceptions.UnknownUserException;
 import com.eve.marketwatch.model.dao.Structure;
 import com.eve.marketwatch.model.dao.StructureRepository;
+import com.eve.marketwatch.service.EsiClient;
 import com.eve.marketwatch.service.EveAuthService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.ClientBuilder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -25,7 +25,7 @@ public class StructureSearchHandler implements RequestHandler<Map<String, Object
     private static final Logger LOG = LogManager.getLogger(StructureSearchHandler.class);
 	private final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
 
-    private final javax.ws.rs.client.Client webClient = ClientBuilder.newClient();
+    private final EsiClient esiClient = EsiClient.getInstance();
     private final StructureRepository structureRepository = StructureRepository.getInstance();
     private final EveAuthService eveAuthService = new EveAuthService();
 
@@ -61,8 +61,8 @@ public class StructureSearchHandler implements RequestHandler<Map<String, Object
 
 		final List<Structure> allKnownStructures = structureRepository.findAll();
 
-		final Future<List<String>> f1 = executor.submit(new StructureResolver(term, allKnownStructures, structureRepository, webClient, characterId, accessToken));
-		final Future<List<String>> f2 = executor.submit(new StationResolver(term, allKnownStructures, structureRepository, webClient));
+		final Future<List<String>> f1 = executor.submit(new StructureResolver(term, allKnownStructures, structureRepository, esiClient, characterId, accessToken));
+		final Future<List<String>> f2 = executor.submit(new StationResolver(term, allKnownStructures, structureRepository, esiClient));
 
 		List<String> names = new ArrayList<>();
 		try {
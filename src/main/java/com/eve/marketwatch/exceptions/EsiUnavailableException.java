@@ -0,0 +1,20 @@
+package com.eve.marketwatch.exceptions;
+
+/**
+ * ESI could not be reached or answered with a server error. Unlike other failures it is worth retrying the request.
+ */
+public class EsiUnavailableException extends BadRequestException {
+    private final int status;
+
+    public EsiUnavailableException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return the http status or 0 if no response has been received
+     */
+    public int getStatus() {
+        return status;
+    }
+}
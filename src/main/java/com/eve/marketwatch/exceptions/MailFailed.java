@@ -4,11 +4,17 @@ public class MailFailed extends Throwable {
     private final int status;
     private final int recipientId;
     private final boolean retry;
+    private final long retryAfterMillis;
 
     public MailFailed(int status, int recipientId, boolean retry) {
+        this(status, recipientId, retry, 0);
+    }
+
+    public MailFailed(int status, int recipientId, boolean retry, long retryAfterMillis) {
         this.status = status;
         this.recipientId = recipientId;
         this.retry = retry;
+        this.retryAfterMillis = retryAfterMillis;
     }
 
     public int getStatus() {
@@ -22,4 +28,11 @@ public class MailFailed extends Throwable {
     public boolean isRetry() {
         return retry;
     }
+
+    /**
+     * @return how long ESI asked us to wait before the next mail, 0 if it did not say
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
 }
@@ -0,0 +1,130 @@
+package com.eve.marketwatch.jobs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stops fetching a market source (a region or a structure) for which ESI keeps failing. Once a source failed
+ * {@link #FAILURE_THRESHOLD} runs in a row it is left alone for a while, doubling the pause with every further
+ * failure. After the pause a single run tries the source again and closes the breaker if it succeeds.
+ * <p>
+ * While a source is skipped its snapshots keep the volumes of the last complete fetch. Like the {@link FetchSchedule}
+ * the state lives as long as the container.
+ * <p>
+ * The state is kept per source, but with the work units fanned out to parseMarketWorker a source is processed by
+ * whichever container picks up its invocation. It only takes effect when that container has processed the same source
+ * before, otherwise the source is handled as if it were seen for the first time.
+ */
+class CircuitBreaker {
+
+    private static final Logger LOG = LogManager.getLogger(CircuitBreaker.class);
+
+    static final int FAILURE_THRESHOLD = 2;
+    // slightly less than the parser schedule, so an open breaker skips exactly the next run
+    static final long BASE_OPEN_MILLIS = Duration.ofMinutes(55).toMillis();
+    static final long MAX_OPEN_MILLIS = Duration.ofHours(6).toMillis();
+
+    private static final CircuitBreaker instance = new CircuitBreaker(
+            Paths.get(System.getProperty("java.io.tmpdir"), "market-circuit-breaker.properties"));
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private boolean loaded;
+
+    CircuitBreaker(Path file) {
+        this.file = file;
+    }
+
+    static CircuitBreaker getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return false while the breaker of the source is open
+     */
+    boolean allows(String source, long now) {
+        load();
+        final Entry entry = entries.get(source);
+        return entry == null || entry.openUntil <= now;
+    }
+
+    void recordSuccess(String source) {
+        if (entries.remove(source) != null) {
+            LOG.info("Closed circuit breaker of " + source);
+        }
+    }
+
+    void recordFailure(String source, long now) {
+        load();
+        final Entry entry = entries.compute(source, (s, previous) -> {
+            final int failures = previous == null ? 1 : previous.failures + 1;
+            if (failures < FAILURE_THRESHOLD) {
+                return new Entry(failures, 0);
+            }
+            final long openMillis = Math.min(MAX_OPEN_MILLIS,
+                    BASE_OPEN_MILLIS << Math.min(failures - FAILURE_THRESHOLD, 16));
+            return new Entry(failures, now + openMillis);
+        });
+        if (entry.openUntil > now) {
+            LOG.warn("Opened circuit breaker of " + source + " after " + entry.failures + " failures for "
+                    + Duration.ofMillis(entry.openUntil - now).toMinutes() + " minutes.");
+        }
+    }
+
+    synchronized void persist() {
+        final Properties properties = new Properties();
+        entries.forEach((source, entry) -> properties.setProperty(source, entry.failures + "," + entry.openUntil));
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Consecutive failures per market source");
+        } catch (IOException e) {
+            LOG.warn("Failed to write circuit breaker state to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable circuit breaker state " + file + ": " + e.getMessage());
+            return;
+        }
+        for (final String source : properties.stringPropertyNames()) {
+            final String[] values = properties.getProperty(source).split(",");
+            try {
+                entries.putIfAbsent(source, new Entry(Integer.parseInt(values[0]), Long.parseLong(values[1])));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                LOG.warn("Ignoring invalid circuit breaker entry for " + source);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final int failures;
+        private final long openUntil;
+
+        private Entry(int failures, long openUntil) {
+            this.failures = failures;
+            this.openUntil = openUntil;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.eve.marketwatch.jobs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks when the ESI cache of every market source (a region or a structure) expires, so the parser neither
+ * re-fetches data that cannot have changed yet nor fetches just before a refresh and keeps stale data for an hour.
+ * Like the {@link MarketPageCache} the state lives as long as the container.
+ * <p>
+ * The state is kept per source, but with the work units fanned out to parseMarketWorker a source is processed by
+ * whichever container picks up its invocation. It only takes effect when that container has processed the same source
+ * before, otherwise the source is handled as if it were seen for the first time.
+ */
+class FetchSchedule {
+
+    private static final Logger LOG = LogManager.getLogger(FetchSchedule.class);
+
+    // if the next refresh is this close it is worth waiting for it instead of fetching data that is about to expire
+    static final long ALIGN_WINDOW_MILLIS = 30_000;
+    // ESI needs a moment after the expiry until the refreshed data is served
+    static final long ALIGN_MARGIN_MILLIS = 2_000;
+
+    private static final FetchSchedule instance = new FetchSchedule(
+            Paths.get(System.getProperty("java.io.tmpdir"), "market-fetch-schedule.properties"));
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private boolean loaded;
+
+    FetchSchedule(Path file) {
+        this.file = file;
+    }
+
+    static FetchSchedule getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return 0 if the source should be fetched now, a positive number of milliseconds to wait before fetching it or
+     * -1 if the data of the last fetch is still cached by ESI and the source can be skipped
+     */
+    long plan(String source, long fingerprint, long now) {
+        load();
+        final Entry entry = entries.get(source);
+        if (entry == null || entry.fingerprint != fingerprint || entry.expires <= 0) {
+            return 0;
+        }
+        long nextRefresh = entry.expires;
+        if (nextRefresh <= now && entry.period > 0) {
+            nextRefresh += ((now - nextRefresh) / entry.period + 1) * entry.period;
+        }
+        if (nextRefresh > now && nextRefresh - now <= ALIGN_WINDOW_MILLIS) {
+            return nextRefresh - now + ALIGN_MARGIN_MILLIS;
+        }
+        return now < entry.expires ? -1 : 0;
+    }
+
+    int getPageCount(String source) {
+        final Entry entry = entries.get(source);
+        return entry == null ? 0 : entry.pageCount;
+    }
+
+    void record(String source, long fingerprint, MarketOrderPage page) {
+        final long period = page.getExpires() > 0 && page.getLastModified() > 0
+                ? page.getExpires() - page.getLastModified() : 0;
+        entries.put(source, new Entry(fingerprint, page.getExpires(), period, page.getPageCount()));
+    }
+
+    static long parseHttpDate(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            LOG.warn("Ignoring invalid http date " + value);
+            return 0;
+        }
+    }
+
+    synchronized void persist() {
+        final Properties properties = new Properties();
+        entries.forEach((source, entry) -> properties.setProperty(source,
+                entry.fingerprint + "," + entry.expires + "," + entry.period + "," + entry.pageCount));
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            properties.store(writer, "ESI expiry per market source");
+        } catch (IOException e) {
+            LOG.warn("Failed to write fetch schedule to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable fetch schedule " + file + ": " + e.getMessage());
+            return;
+        }
+        for (final String source : properties.stringPropertyNames()) {
+            final String[] values = properties.getProperty(source).split(",");
+            try {
+                entries.putIfAbsent(source, new Entry(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                        Long.parseLong(values[2]), Integer.parseInt(values[3])));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                LOG.warn("Ignoring invalid fetch schedule entry for " + source);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final long fingerprint;
+        private final long expires;
+        private final long period;
+        private final int pageCount;
+
+        private Entry(long fingerprint, long expires, long period, int pageCount) {
+            this.fingerprint = fingerprint;
+            this.expires = expires;
+            this.period = period;
+            this.pageCount = pageCount;
+        }
+    }
+}
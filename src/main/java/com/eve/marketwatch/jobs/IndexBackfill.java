@@ -0,0 +1,64 @@
+package com.eve.marketwatch.jobs;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.eve.marketwatch.api.ApiGatewayResponse;
+import com.eve.marketwatch.model.dao.ItemWatch;
+import com.eve.marketwatch.model.dao.ItemWatchRepository;
+import com.eve.marketwatch.model.dao.Mail;
+import com.eve.marketwatch.model.dao.MailRepository;
+import com.eve.marketwatch.model.dao.MailStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-off job that writes the attributes of the sparse indexes for items that have been stored before these
+ * attributes existed. Such items are only written again when their state changes, which for a triggered watch that
+ * is waiting for its mail or a mail that is waiting to be sent never happens.
+ * <p>
+ * Invoke it once after deploying with {@code sls invoke -f backfillIndexes}, running it again does no harm.
+ */
+public class IndexBackfill implements RequestHandler<Map<String, Object>, ApiGatewayResponse> {
+
+    private static final Logger LOG = LogManager.getLogger(IndexBackfill.class);
+
+    private final ItemWatchRepository itemWatchRepository;
+    private final MailRepository mailRepository;
+
+    public IndexBackfill() {
+        itemWatchRepository = ItemWatchRepository.getInstance();
+        mailRepository = MailRepository.getInstance();
+    }
+
+    @Override
+    public ApiGatewayResponse handleRequest(Map<String, Object> input, Context context) {
+        backfillPendingNotifications();
+        backfillOutbox();
+        return ApiGatewayResponse.builder()
+                .setStatusCode(200)
+                .build();
+    }
+
+    /**
+     * Puts every watch that is triggered but not mailed yet into the pending notification index.
+     */
+    void backfillPendingNotifications() {
+        final long written = itemWatchRepository.findAll().stream()
+                .filter(watch -> watch.getPendingNotification() != null)
+                .filter(itemWatchRepository::updateState)
+                .count();
+        LOG.info("Added " + written + " pending watches to " + ItemWatch.PENDING_NOTIFICATION_INDEX + ".");
+    }
+
+    /**
+     * Puts every mail that has not been sent yet into the outbox index, saving a mail writes its derived outbox keys.
+     */
+    void backfillOutbox() {
+        final List<Mail> mails = mailRepository.findByStatus(MailStatus.NEW);
+        mails.forEach(mailRepository::save);
+        LOG.info("Added " + mails.size() + " new mails to " + Mail.OUTBOX_INDEX + ".");
+    }
+}
@@ -0,0 +1,58 @@
+package com.eve.marketwatch.jobs;
+
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.InvocationType;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Invokes the worker function asynchronously once per work unit, so every region and structure batch gets a
+ * container and a timeout of its own. The worker function is deployed without retries, a failed unit is dropped and
+ * its markets keep their last snapshots until the next scheduled run.
+ */
+class LambdaMarketWorkDispatcher implements MarketWorkDispatcher {
+
+    private static final Logger LOG = LogManager.getLogger(LambdaMarketWorkDispatcher.class);
+
+    private final String functionName;
+    private final AWSLambda lambda;
+    private final Gson gson = new Gson();
+
+    LambdaMarketWorkDispatcher(String functionName) {
+        this(functionName, AWSLambdaClientBuilder.defaultClient());
+    }
+
+    LambdaMarketWorkDispatcher(String functionName, AWSLambda lambda) {
+        this.functionName = functionName;
+        this.lambda = lambda;
+    }
+
+    @Override
+    public void dispatch(List<MarketWorkUnit> workUnits) {
+        int dispatched = 0;
+        for (final MarketWorkUnit workUnit : workUnits) {
+            final InvokeRequest request = new InvokeRequest()
+                    .withFunctionName(functionName)
+                    .withInvocationType(InvocationType.Event)
+                    .withPayload(gson.toJson(Collections.singletonMap(MarketParser.WORK_UNIT_KEY, workUnit)));
+            try {
+                final InvokeResult result = lambda.invoke(request);
+                if (result.getStatusCode() != 202) {
+                    LOG.warn("Worker invocation for " + workUnit + " returned " + result.getStatusCode());
+                    continue;
+                }
+                dispatched++;
+            } catch (RuntimeException e) {
+                LOG.error("Failed to dispatch " + workUnit, e);
+            }
+        }
+        LOG.info("Dispatched " + dispatched + " of " + workUnits.size() + " work units to " + functionName);
+    }
+}
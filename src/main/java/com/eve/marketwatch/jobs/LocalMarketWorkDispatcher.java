@@ -0,0 +1,22 @@
+package com.eve.marketwatch.jobs;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Processes all work units in the coordinating invocation. Used when no worker function is configured, e.g. when
+ * running locally or in tests.
+ */
+class LocalMarketWorkDispatcher implements MarketWorkDispatcher {
+
+    private final Consumer<List<MarketWorkUnit>> worker;
+
+    LocalMarketWorkDispatcher(Consumer<List<MarketWorkUnit>> worker) {
+        this.worker = worker;
+    }
+
+    @Override
+    public void dispatch(List<MarketWorkUnit> workUnits) {
+        worker.accept(workUnits);
+    }
+}
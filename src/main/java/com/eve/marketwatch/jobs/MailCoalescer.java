@@ -0,0 +1,102 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.Mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Merges the pending mails of a recipient into as few mails as the EVE mail body limit allows. Every mail the sender
+ * character sends counts against its rate limit, no matter how short it is.
+ * <p>
+ * The mails are expected in outbox order, so a merged mail keeps the position and priority of its most important part.
+ */
+class MailCoalescer {
+
+    static final int MAX_BODY_LENGTH = 10_000;
+    private static final String SEPARATOR = "\n\n";
+
+    List<CoalescedMail> coalesce(List<Mail> outbox) {
+        final List<CoalescedMail> coalesced = new ArrayList<>();
+        final Map<Integer, CoalescedMail> openByRecipient = new HashMap<>();
+        for (final Mail mail : outbox) {
+            final CoalescedMail open = openByRecipient.get(mail.getRecipient());
+            if (open != null && open.fits(mail)) {
+                open.parts.add(mail);
+            } else {
+                final CoalescedMail next = new CoalescedMail(mail);
+                coalesced.add(next);
+                openByRecipient.put(mail.getRecipient(), next);
+            }
+        }
+        return coalesced;
+    }
+
+    static class CoalescedMail {
+        private final List<Mail> parts = new ArrayList<>();
+
+        CoalescedMail(Mail first) {
+            parts.add(first);
+        }
+
+        List<Mail> getParts() {
+            return Collections.unmodifiableList(parts);
+        }
+
+        int getRecipient() {
+            return parts.get(0).getRecipient();
+        }
+
+        int getPriority() {
+            return parts.stream()
+                    .mapToInt(mail -> mail.getPriority() == null ? 0 : mail.getPriority())
+                    .max().orElse(0);
+        }
+
+        /**
+         * @return the creation time of the oldest part in milliseconds, 0 if it is not known
+         */
+        long getCreated() {
+            return parts.stream()
+                    .mapToLong(mail -> mail.getCreated() == null ? 0 : mail.getCreated().getTime())
+                    .min().orElse(0);
+        }
+
+        String getSubject() {
+            final String subject = subjectOf(parts.get(0));
+            if (parts.stream().allMatch(mail -> subject.equals(subjectOf(mail)))) {
+                return subject;
+            }
+            return "Eve Market Watch - " + parts.size() + " messages";
+        }
+
+        String getText() {
+            return render(parts);
+        }
+
+        private boolean fits(Mail mail) {
+            final List<Mail> candidate = new ArrayList<>(parts);
+            candidate.add(mail);
+            return render(candidate).length() <= MAX_BODY_LENGTH;
+        }
+
+        private static String render(List<Mail> parts) {
+            if (parts.size() == 1) {
+                return parts.get(0).getText();
+            }
+            // the parts keep their own subject as a heading
+            return parts.stream()
+                    .map(mail -> "<b>" + subjectOf(mail) + "</b>\n" + mail.getText())
+                    .collect(Collectors.joining(SEPARATOR));
+        }
+
+        // a mail saved without a subject must not break the other parts
+        private static String subjectOf(Mail mail) {
+            return mail.getSubject() == null ? "" : mail.getSubject();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.Mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters and queue latencies of a single mail sending run, per mail class. They are logged once the run is complete.
+ */
+class MailMetrics {
+
+    private final Map<String, List<Long>> latenciesByClass = new TreeMap<>();
+    private int sent;
+    private int failed;
+    private int posts;
+
+    static String mailClass(Integer priority) {
+        if (priority == null) {
+            return "unknown";
+        }
+        switch (priority) {
+            case Mail.PRIORITY_NOTIFICATION:
+                return "notification";
+            case Mail.PRIORITY_BULK:
+                return "bulk";
+            case Mail.PRIORITY_DEACTIVATION:
+                return "deactivation";
+            default:
+                return "priority" + priority;
+        }
+    }
+
+    /**
+     * @param sentAt the time the parts left the outbox
+     */
+    void posted(MailCoalescer.CoalescedMail mail, long sentAt) {
+        posts++;
+        for (final Mail part : mail.getParts()) {
+            sent++;
+            if (part.getCreated() != null) {
+                latenciesByClass.computeIfAbsent(mailClass(part.getPriority()), c -> new ArrayList<>())
+                        .add(sentAt - part.getCreated().getTime());
+            }
+        }
+    }
+
+    void failed(MailCoalescer.CoalescedMail mail) {
+        failed += mail.getParts().size();
+    }
+
+    /**
+     * @return the latency in milliseconds that the given share of the mails of the class did not exceed, -1 if no mail
+     * of the class has been sent
+     */
+    long percentile(String mailClass, double percentile) {
+        final List<Long> latencies = latenciesByClass.get(mailClass);
+        if (latencies == null || latencies.isEmpty()) {
+            return -1;
+        }
+        Collections.sort(latencies);
+        final int rank = (int) Math.ceil(percentile / 100 * latencies.size());
+        return latencies.get(Math.max(0, rank - 1));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("MailMetrics{")
+                .append("sent=").append(sent)
+                .append(", failed=").append(failed)
+                .append(", posts=").append(posts);
+        latenciesByClass.forEach((mailClass, latencies) -> builder.append(", ").append(mailClass)
+                .append("={count=").append(latencies.size())
+                .append(", p50=").append(percentile(mailClass, 50)).append("ms")
+                .append(", p99=").append(percentile(mailClass, 99)).append("ms}"));
+        return builder.append('}').toString();
+    }
+}
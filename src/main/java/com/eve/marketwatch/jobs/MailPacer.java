@@ -0,0 +1,65 @@
+package com.eve.marketwatch.jobs;
+
+/**
+ * Spaces the mails of the sender character. ESI rejects mails that are sent too fast with 520 (MailStopSpamming) and
+ * every request while the application is error limited with 420. Both push the next mail back and double the
+ * interval, every mail that goes through narrows it again down to the configured minimum.
+ * <p>
+ * The state lives as long as the container, so a warm sender keeps its pace between two invocations.
+ */
+class MailPacer {
+
+    static final long MAX_INTERVAL_MILLIS = 5 * 60 * 1000;
+
+    private static final MailPacer instance = new MailPacer(getLongEnv("MAIL_INTERVAL_MILLIS", 12_000));
+
+    private final long minIntervalMillis;
+    private long intervalMillis;
+    private long nextSendAt;
+
+    MailPacer(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.intervalMillis = minIntervalMillis;
+    }
+
+    static MailPacer getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the milliseconds to wait before the next mail may be sent
+     */
+    synchronized long delayMillis(long now) {
+        return Math.max(0, nextSendAt - now);
+    }
+
+    synchronized void sent(long now) {
+        intervalMillis = Math.max(minIntervalMillis, intervalMillis * 9 / 10);
+        nextSendAt = now + intervalMillis;
+    }
+
+    /**
+     * @param retryAfterMillis how long ESI asked us to wait, 0 if it did not say. The wait is capped like the interval,
+     *                         so one odd answer cannot stall the sender for the lifetime of the container.
+     */
+    synchronized void throttled(long now, long retryAfterMillis) {
+        intervalMillis = Math.min(MAX_INTERVAL_MILLIS, intervalMillis * 2);
+        nextSendAt = now + Math.min(MAX_INTERVAL_MILLIS, Math.max(intervalMillis, retryAfterMillis));
+    }
+
+    synchronized long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    private static long getLongEnv(String name, long defaultValue) {
+        final String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
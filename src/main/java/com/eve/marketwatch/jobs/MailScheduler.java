@@ -0,0 +1,118 @@
+package com.eve.marketwatch.jobs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Decides in which order the coalesced mails of a run are sent. Every priority is a class with its own queue, oldest
+ * first. The next mail comes from the class that has been served least relative to its weight, which is its priority
+ * grown by the time its oldest mail has waited. A flood of notifications therefore cannot starve a bulk mail forever and
+ * neither can a large broadcast hold back notifications.
+ * <p>
+ * On top of that a class may take at most a share of the mails of a run as long as other classes are waiting, and a
+ * recipient at most a number of mails per run. Mails beyond a cap stay in the outbox for the next run, the caller
+ * leaves out the {@link #getCappedRecipients() capped recipients} when it reads the next page of the outbox.
+ * <p>
+ * An instance lives for a single run, the counters carry over from one outbox page to the next.
+ */
+class MailScheduler {
+
+    private final long agingMillis;
+    private final int maxPerRecipient;
+    private final double maxClassShare;
+
+    private final Map<Integer, Integer> servedByClass = new HashMap<>();
+    private final Map<Integer, Integer> servedByRecipient = new HashMap<>();
+    private int served;
+
+    /**
+     * @param agingMillis     the waiting time after which a class weighs twice its priority
+     * @param maxPerRecipient the mails a recipient may receive per run
+     * @param maxClassShare   the share of the mails of a run a class may take while other classes wait
+     */
+    MailScheduler(long agingMillis, int maxPerRecipient, double maxClassShare) {
+        this.agingMillis = agingMillis;
+        this.maxPerRecipient = maxPerRecipient;
+        this.maxClassShare = maxClassShare;
+    }
+
+    /**
+     * Orders the mails and counts them as served, the caller is expected to send them in this order.
+     */
+    List<MailCoalescer.CoalescedMail> schedule(List<MailCoalescer.CoalescedMail> mails, long now) {
+        final Map<Integer, Deque<MailCoalescer.CoalescedMail>> queues = new TreeMap<>(Comparator.reverseOrder());
+        mails.stream()
+                .sorted(Comparator.comparingLong(MailCoalescer.CoalescedMail::getCreated))
+                .forEach(mail -> queues.computeIfAbsent(mail.getPriority(), p -> new ArrayDeque<>()).add(mail));
+
+        final List<MailCoalescer.CoalescedMail> scheduled = new ArrayList<>(mails.size());
+        while (true) {
+            final List<Integer> waiting = new ArrayList<>();
+            queues.forEach((priority, queue) -> {
+                while (!queue.isEmpty() && recipientCapped(queue.peek())) {
+                    queue.poll();
+                }
+                if (!queue.isEmpty()) {
+                    waiting.add(priority);
+                }
+            });
+            if (waiting.isEmpty()) {
+                return scheduled;
+            }
+            final Integer next = pick(waiting, queues, now);
+            final MailCoalescer.CoalescedMail mail = queues.get(next).poll();
+            scheduled.add(mail);
+            servedByClass.merge(next, 1, Integer::sum);
+            servedByRecipient.merge(mail.getRecipient(), 1, Integer::sum);
+            served++;
+        }
+    }
+
+    private Integer pick(List<Integer> waiting, Map<Integer, Deque<MailCoalescer.CoalescedMail>> queues, long now) {
+        Integer best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (final Integer priority : waiting) {
+            if (waiting.size() > 1 && classCapped(priority)) {
+                continue;
+            }
+            final double score = (servedByClass.getOrDefault(priority, 0) + 1)
+                    / weight(priority, now - queues.get(priority).peek().getCreated());
+            if (score < bestScore) {
+                best = priority;
+                bestScore = score;
+            }
+        }
+        // every waiting class is capped, the caps only keep the share between them
+        return best == null ? waiting.get(0) : best;
+    }
+
+    double weight(int priority, long waitedMillis) {
+        return Math.max(1, priority) * (1 + (double) Math.max(0, waitedMillis) / agingMillis);
+    }
+
+    /**
+     * @return the recipients that have received all the mails they may receive this run
+     */
+    Set<Integer> getCappedRecipients() {
+        return servedByRecipient.entrySet().stream()
+                .filter(entry -> entry.getValue() >= maxPerRecipient)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    private boolean classCapped(int priority) {
+        return servedByClass.getOrDefault(priority, 0) >= maxClassShare * (served + 1);
+    }
+
+    private boolean recipientCapped(MailCoalescer.CoalescedMail mail) {
+        return servedByRecipient.getOrDefault(mail.getRecipient(), 0) >= maxPerRecipient;
+    }
+}
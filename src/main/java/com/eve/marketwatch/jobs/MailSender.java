@@ -2,10 +2,10 @@ package com.eve.marketwatch.jobs;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.api.ApiGatewayResponse;
 import com.eve.marketwatch.exceptions.MailFailed;
 import com.eve.marketwatch.model.dao.UserRepository;
+import com.eve.marketwatch.service.EsiClient;
 import com.eve.marketwatch.service.EveAuthService;
 import com.eve.marketwatch.exceptions.BadRequestException;
 import com.eve.marketwatch.model.eveauth.AccessTokenResponse;
@@ -15,23 +15,48 @@ import com.eve.marketwatch.model.dao.MailRepository;
 import com.eve.marketwatch.model.esi.MailRequest;
 import com.eve.marketwatch.model.dao.MailStatus;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
+import java.time.Instant;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class MailSender implements RequestHandler<Map<String, Object>, ApiGatewayResponse> {
 
 	private static final Logger LOG = LogManager.getLogger(MailSender.class);
 
-	private final javax.ws.rs.client.Client webClient = ClientBuilder.newClient();
+	// a run ends once less than this is left of the invocation
+	private static final long DEADLINE_MARGIN_MILLIS = 5_000;
+	// the time we allow for a mail to be sent and saved
+	private static final long SEND_MILLIS = 5_000;
+	private static final long DEFAULT_RUN_MILLIS = 55_000;
+	// large enough that most mails of a recipient are coalesced into one
+	private static final int BATCH_SIZE = 100;
+	private static final int[] MAIL_CLASSES = {Mail.PRIORITY_NOTIFICATION, Mail.PRIORITY_BULK, Mail.PRIORITY_DEACTIVATION};
+	// a mail class weighs twice its priority after its oldest mail has waited this long
+	private static final long AGING_MILLIS = 10 * 60 * 1000;
+	private static final int MAX_MAILS_PER_RECIPIENT = 3;
+	private static final double MAX_CLASS_SHARE = 0.75;
+	// the remaining_time of a MailStopSpamming error is a .NET TimeSpan in ticks of 100 nanoseconds
+	private static final long REMAINING_TIME_TICKS_PER_MILLI = 10_000;
+	// a token that is still rejected after a refresh has most likely been revoked or lacks the mail scope
+	private static final int MAX_AUTH_ATTEMPTS = 3;
+
+	private final EsiClient esiClient = EsiClient.getInstance();
+	private final MailPacer mailPacer = MailPacer.getInstance();
+	private final MailCoalescer mailCoalescer = new MailCoalescer();
 	private final EveAuthService eveAuthService;
 	private final MailRepository mailRepository;
 	private final UserRepository userRepository;
@@ -39,6 +64,8 @@ public class MailSender implements RequestHandler<Map<String, Object>, ApiGatewa
 	private final String mailClientId;
 	private final String mailSecret;
 	private final String mailRefreshToken;
+	private String mailAccessToken;
+	private Instant mailAccessTokenExpiry;
 
 	public MailSender() {
 		mailRepository = MailRepository.getInstance();
@@ -62,35 +89,150 @@ public class MailSender implements RequestHandler<Map<String, Object>, ApiGatewa
 
 	@Override
 	public ApiGatewayResponse handleRequest(Map<String, Object> input, Context context) {
-		doSend();
+		final long remainingMillis = context == null ? DEFAULT_RUN_MILLIS : context.getRemainingTimeInMillis();
+		doSend(System.currentTimeMillis() + remainingMillis - DEADLINE_MARGIN_MILLIS);
 		return ApiGatewayResponse.builder()
 				.setStatusCode(200)
 				.build();
 	}
 
-	void doSend() {
-		final List<Mail> mails = mailRepository.findByStatus(MailStatus.NEW);
-		if (mails.isEmpty()) {
-			LOG.info("No new mails to be sent.");
-		} else {
-			final Mail mail = mails.stream()
-					.sorted((o1, o2) -> o2.getPriority().compareTo(o1.getPriority()))
-					.collect(Collectors.toList()).get(0);
-
-			LOG.info("Processing mail " + mail.getId());
-
-			final MailRequest mailRequest = createMailRequest(mail);
-			try {
-				submitMailRequest(mailRequest);
-				mail.setMailStatus(MailStatus.SENT);
-				mail.setCreated(new Date());
-			} catch (final MailFailed mailFailed) {
-				updateUserErrors(mailFailed);
-				if (!mailFailed.isRetry()) {
-					mail.setMailStatus(MailStatus.FAILED);
+	/**
+	 * Sends mails until the queue is empty, the deadline is near or ESI throttles us. Mails that could not be sent stay
+	 * NEW and are picked up by the next run, unless the sender token keeps being rejected for them or cannot be refreshed
+	 * at all. The pending mails of a recipient are sent as one mail, the
+	 * {@link MailScheduler} decides the order.
+	 */
+	void doSend(long deadline) {
+		final MailMetrics metrics = new MailMetrics();
+		final MailScheduler scheduler = new MailScheduler(AGING_MILLIS, MAX_MAILS_PER_RECIPIENT, MAX_CLASS_SHARE);
+		// the outbox index is eventually consistent and may still list mails that have just been handled
+		final Set<String> handled = new HashSet<>();
+		try {
+			List<MailCoalescer.CoalescedMail> mails = findNextMails(handled, scheduler);
+			if (mails.isEmpty()) {
+				LOG.info("No new mails to be sent.");
+			}
+			while (!mails.isEmpty()) {
+				for (final MailCoalescer.CoalescedMail mail : mails) {
+					mail.getParts().forEach(part -> handled.add(part.getId()));
+					final long delay = mailPacer.delayMillis(System.currentTimeMillis());
+					if (System.currentTimeMillis() + delay + SEND_MILLIS > deadline) {
+						LOG.info("Stopping before the deadline, mails remain in the queue.");
+						return;
+					}
+					sleep(delay);
+
+					LOG.info("Processing mail " + mail.getParts().get(0).getId() + " with " + mail.getParts().size() + " parts");
+					try {
+						submitMailRequest(createMailRequest(mail));
+						final long now = System.currentTimeMillis();
+						mailPacer.sent(now);
+						metrics.posted(mail, now);
+						for (final Mail part : mail.getParts()) {
+							part.setMailStatus(MailStatus.SENT);
+							part.setCreated(new Date(now));
+							mailRepository.save(part);
+						}
+					} catch (final BadRequestException e) {
+						LOG.error("Failed to generate access token for mail sending, giving up on the mail.", e);
+						metrics.failed(mail);
+						setFailed(mail);
+						return;
+					} catch (final MailFailed mailFailed) {
+						if (isUnauthorized(mailFailed.getStatus())) {
+							if (countAttempt(mail)) {
+								LOG.warn("Mail sending failed with " + mailFailed.getStatus() + " " + MAX_AUTH_ATTEMPTS
+										+ " times, giving up on the mail.");
+								metrics.failed(mail);
+								setFailed(mail);
+								continue;
+							}
+							LOG.warn("Mail sending failed with " + mailFailed.getStatus() + ", retrying in the next run.");
+							return;
+						}
+						if (isThrottled(mailFailed.getStatus())) {
+							mailPacer.throttled(System.currentTimeMillis(), mailFailed.getRetryAfterMillis());
+							LOG.warn("Mail sending throttled with " + mailFailed.getStatus() + ", the interval is now "
+									+ mailPacer.getIntervalMillis() + "ms.");
+							return;
+						}
+						if (mailFailed.isRetry()) {
+							LOG.warn("Mail sending failed with " + mailFailed.getStatus() + ", retrying in the next run.");
+							return;
+						}
+						updateUserErrors(mailFailed);
+						metrics.failed(mail);
+						setFailed(mail);
+					}
 				}
+				mails = findNextMails(handled, scheduler);
 			}
-			mailRepository.save(mail);
+		} finally {
+			LOG.info(metrics);
+		}
+	}
+
+	/**
+	 * Reads the head of the outbox and of every known mail class, so that a flood of one class does not hide the
+	 * others from the scheduler. Recipients that have had their mails for this run are left out, otherwise their
+	 * remaining mails could fill the whole batch and hide the mails behind them.
+	 */
+	private List<MailCoalescer.CoalescedMail> findNextMails(final Set<String> handled, final MailScheduler scheduler) {
+		final Set<Integer> capped = scheduler.getCappedRecipients();
+		final Map<String, Mail> candidates = new HashMap<>();
+		mailRepository.findOutbox(BATCH_SIZE, capped).forEach(mail -> candidates.put(mail.getId(), mail));
+		for (final int priority : MAIL_CLASSES) {
+			mailRepository.findOutbox(priority, BATCH_SIZE, capped).forEach(mail -> candidates.put(mail.getId(), mail));
+		}
+		final List<Mail> outbox = candidates.values().stream()
+				.filter(mail -> !handled.contains(mail.getId()))
+				.sorted(Comparator.comparing(Mail::getOutboxKey))
+				.collect(Collectors.toList());
+		return scheduler.schedule(mailCoalescer.coalesce(outbox), System.currentTimeMillis());
+	}
+
+	/**
+	 * Counts a rejected token against every part of the mail. The recipient is not to blame, so unlike other failures
+	 * this does not count as an error of the user.
+	 *
+	 * @return true once the mail has been rejected too often to try it again
+	 */
+	private boolean countAttempt(final MailCoalescer.CoalescedMail mail) {
+		boolean exhausted = false;
+		for (final Mail part : mail.getParts()) {
+			final int attempts = part.getAttempts() == null ? 1 : part.getAttempts() + 1;
+			part.setAttempts(attempts);
+			exhausted |= attempts >= MAX_AUTH_ATTEMPTS;
+		}
+		if (!exhausted) {
+			mail.getParts().forEach(mailRepository::save);
+		}
+		return exhausted;
+	}
+
+	private void setFailed(final MailCoalescer.CoalescedMail mail) {
+		for (final Mail part : mail.getParts()) {
+			part.setMailStatus(MailStatus.FAILED);
+			mailRepository.save(part);
+		}
+	}
+
+	static boolean isUnauthorized(int status) {
+		return status == 401 || status == 403;
+	}
+
+	static boolean isThrottled(int status) {
+		return status == 420 || status == 520;
+	}
+
+	private void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -105,7 +247,7 @@ public class MailSender implements RequestHandler<Map<String, Object>, ApiGatewa
 		});
 	}
 
-	private MailRequest createMailRequest(final Mail mail) {
+	private MailRequest createMailRequest(final MailCoalescer.CoalescedMail mail) {
 		final MailRequest mailRequest = new MailRequest();
 		mailRequest.setRecipients(Collections.singletonList(new MailRecipient(mail.getRecipient())));
 		mailRequest.setSubject(mail.getSubject());
@@ -113,28 +255,54 @@ public class MailSender implements RequestHandler<Map<String, Object>, ApiGatewa
 		return mailRequest;
 	}
 
-	private void submitMailRequest(final MailRequest mailRequest) throws MailFailed {
-		final AccessTokenResponse accessTokenResponse;
-		try {
-			accessTokenResponse = eveAuthService.getAccessToken(mailRefreshToken, mailClientId, mailSecret);
-		} catch (BadRequestException e) {
-			throw new RuntimeException("Failed to generate access token for mail sending.");
+	/**
+	 * Hands out the access token of the sender character, it is refreshed only once it is about to expire.
+	 */
+	private String getMailAccessToken() throws BadRequestException {
+		if (mailAccessToken == null || Instant.now().isAfter(mailAccessTokenExpiry)) {
+			final AccessTokenResponse accessTokenResponse = eveAuthService.getAccessToken(mailRefreshToken, mailClientId, mailSecret);
+			mailAccessToken = accessTokenResponse.getAccessToken();
+			// -120 to give a 2 minute (2x60) period before the token would expire
+			mailAccessTokenExpiry = Instant.now().plusSeconds(accessTokenResponse.getExpiresIn() - 120L);
 		}
-		final String accessToken = accessTokenResponse.getAccessToken();
+		return mailAccessToken;
+	}
+
+	private void submitMailRequest(final MailRequest mailRequest) throws MailFailed, BadRequestException {
+		final String accessToken = getMailAccessToken();
 		final String payload = new GsonBuilder().create().toJson(mailRequest);
-		final Response mailResponse = webClient.target(Constants.ESI_BASE_URL)
-				.path("/v1/characters/" + mailCharacterId + "/mail/")
-				.request()
-				.header("Authorization", "Bearer " + accessToken)
+		final Response mailResponse = esiClient.path("/v1/characters/" + mailCharacterId + "/mail/")
+				.bearer(accessToken)
 				.post(Entity.entity(payload, "application/json"));
 		final String json = mailResponse.readEntity(String.class);
 		LOG.info(mailResponse.getStatus());
 		if (mailResponse.getStatus() != 201) {
 		    LOG.info(json);
+			if (isUnauthorized(mailResponse.getStatus())) {
+				// the token has been revoked or expired early, get a new one for the next mail
+				mailAccessToken = null;
+			}
 			throw new MailFailed(mailResponse.getStatus(),
 					mailRequest.getRecipients().get(0).getRecipientId(),
-					// if the mail fails during downtime, retry it
-					mailResponse.getStatus() == 502 || mailResponse.getStatus() == 503);
+					// if the mail fails during downtime or because of our token or rate, retry it
+					mailResponse.getStatus() >= 500 || isUnauthorized(mailResponse.getStatus())
+							|| isThrottled(mailResponse.getStatus()),
+					getRetryAfterMillis(json));
+		}
+	}
+
+	/**
+	 * @return the remaining_time ESI sends along with a MailStopSpamming error in milliseconds or 0
+	 */
+	static long getRetryAfterMillis(final String json) {
+		try {
+			final JsonElement element = new JsonParser().parse(json);
+			if (element.isJsonObject() && element.getAsJsonObject().has("remaining_time")) {
+				return element.getAsJsonObject().get("remaining_time").getAsLong() / REMAINING_TIME_TICKS_PER_MILLI;
+			}
+		} catch (RuntimeException e) {
+			// not json
 		}
+		return 0;
 	}
 }
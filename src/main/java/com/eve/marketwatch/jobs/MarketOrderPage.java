@@ -0,0 +1,42 @@
+package com.eve.marketwatch.jobs;
+
+/**
+ * The watched volumes of one or more pages of an ESI market order listing together with the total page count ESI
+ * reported in the X-Pages header and the caching headers of the (first) page.
+ */
+class MarketOrderPage {
+
+    private final MarketVolumes volumes;
+    private final int pageCount;
+    private final long expires;
+    private final long lastModified;
+
+    MarketOrderPage(MarketVolumes volumes, int pageCount, long expires, long lastModified) {
+        this.volumes = volumes;
+        this.pageCount = pageCount;
+        this.expires = expires;
+        this.lastModified = lastModified;
+    }
+
+    MarketVolumes getVolumes() {
+        return volumes;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return epoch millis of the Expires header or 0 if ESI did not send one
+     */
+    long getExpires() {
+        return expires;
+    }
+
+    /**
+     * @return epoch millis of the Last-Modified header or 0 if ESI did not send one
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+}
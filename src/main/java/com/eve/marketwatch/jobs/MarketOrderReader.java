@@ -0,0 +1,130 @@
+package com.eve.marketwatch.jobs;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Streams an ESI market order page and folds the remaining volume and the price of every accepted order straight into
+ * {@link MarketVolumes}, so neither the raw page nor the order objects are ever held in memory. Orders with ids that do
+ * not fit into {@link MarketVolumes} are skipped, one odd order must not fail the whole source.
+ */
+class MarketOrderReader {
+
+    private static final Logger LOG = LogManager.getLogger(MarketOrderReader.class);
+
+    private final Set<Long> locationIds;
+    private final Set<Integer> typeIds;
+    private final long fingerprint;
+
+    MarketOrderReader(Set<Long> locationIds, Set<Integer> typeIds) {
+        this.locationIds = locationIds;
+        this.typeIds = typeIds;
+        this.fingerprint = fingerprint(locationIds, typeIds);
+    }
+
+    /**
+     * Identifies the set of watched locations and types. Aggregates that have been read with a different fingerprint
+     * are missing keys and must not be reused.
+     */
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    MarketVolumes read(final InputStream inputStream) throws IOException {
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    MarketVolumes read(final Reader reader) throws IOException {
+        final MarketVolumes volumes = new MarketVolumes();
+        final JsonReader jsonReader = new JsonReader(reader);
+        int skipped = 0;
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            if (!readOrder(jsonReader, volumes)) {
+                skipped++;
+            }
+        }
+        jsonReader.endArray();
+        if (skipped > 0) {
+            LOG.warn("Skipped " + skipped + " orders with location or type ids out of range.");
+        }
+        return volumes;
+    }
+
+    /**
+     * @return false if the order is watched but could not be added
+     */
+    private boolean readOrder(final JsonReader jsonReader, final MarketVolumes volumes) throws IOException {
+        boolean isBuy = false;
+        long locationId = 0;
+        int typeId = 0;
+        long volumeRemain = 0;
+        double price = 0;
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            final String name = jsonReader.nextName();
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "is_buy_order":
+                    isBuy = jsonReader.nextBoolean();
+                    break;
+                case "location_id":
+                    locationId = jsonReader.nextLong();
+                    break;
+                case "type_id":
+                    typeId = jsonReader.nextInt();
+                    break;
+                case "volume_remain":
+                    volumeRemain = jsonReader.nextLong();
+                    break;
+                case "price":
+                    price = jsonReader.nextDouble();
+                    break;
+                default:
+                    jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        if (locationIds.contains(locationId) && typeIds.contains(typeId)) {
+            if (!MarketVolumes.canPack(locationId, typeId)) {
+                return false;
+            }
+            volumes.add(locationId, typeId, isBuy, volumeRemain, MarketVolumes.toPriceCents(price));
+        }
+        return true;
+    }
+
+    private static long fingerprint(Set<Long> locationIds, Set<Integer> typeIds) {
+        long hash = 1125899906842597L;
+        for (final long locationId : locationIds.stream().sorted().mapToLong(Long::longValue).toArray()) {
+            hash = 31 * hash + mix(locationId);
+        }
+        // separates the two sets so that ids cannot shift from one into the other
+        hash = 31 * hash + mix(-1L);
+        for (final int typeId : typeIds.stream().sorted().mapToInt(Integer::intValue).toArray()) {
+            hash = 31 * hash + mix(typeId);
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        long h = value * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+}
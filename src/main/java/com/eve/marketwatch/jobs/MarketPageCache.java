@@ -0,0 +1,194 @@
+package com.eve.marketwatch.jobs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the ETag and the already aggregated volumes of every market order page, so a page that ESI answers with
+ * 304 Not Modified neither has to be downloaded nor parsed again.
+ * <p>
+ * The cache lives as long as the container: it is kept in memory between warm invocations and written to the Lambda
+ * /tmp directory so it also survives a restart of the runtime inside the same container.
+ * <p>
+ * The state is kept per source, but with the work units fanned out to parseMarketWorker a source is processed by
+ * whichever container picks up its invocation. It only takes effect when that container has processed the same source
+ * before, otherwise the source is handled as if it were seen for the first time.
+ */
+class MarketPageCache {
+
+    private static final Logger LOG = LogManager.getLogger(MarketPageCache.class);
+
+    private static final int FORMAT_VERSION = 2;
+    private static final long MAX_IDLE_MILLIS = Duration.ofDays(1).toMillis();
+    private static final MarketPageCache instance = new MarketPageCache(
+            Paths.get(System.getProperty("java.io.tmpdir"), "market-page-cache.bin"));
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private boolean loaded;
+
+    MarketPageCache(Path file) {
+        this.file = file;
+    }
+
+    static MarketPageCache getInstance() {
+        return instance;
+    }
+
+    static String key(String path, int page) {
+        return path + "?page=" + page;
+    }
+
+    /**
+     * @return the cached entry if it has been aggregated for the same watched keys, null otherwise
+     */
+    Entry get(String key, long fingerprint) {
+        load();
+        final Entry entry = entries.get(key);
+        return entry != null && entry.fingerprint == fingerprint ? entry : null;
+    }
+
+    void put(String key, String etag, long fingerprint, int pageCount, MarketVolumes volumes) {
+        downloaded.incrementAndGet();
+        if (etag == null) {
+            entries.remove(key);
+        } else {
+            entries.put(key, new Entry(etag, fingerprint, pageCount, volumes, System.currentTimeMillis()));
+        }
+    }
+
+    MarketVolumes reuse(Entry entry) {
+        notModified.incrementAndGet();
+        entry.lastUsed = System.currentTimeMillis();
+        final MarketVolumes copy = new MarketVolumes(entry.volumes.size());
+        copy.addAll(entry.volumes);
+        return copy;
+    }
+
+    int getNotModified() {
+        return notModified.get();
+    }
+
+    int getDownloaded() {
+        return downloaded.get();
+    }
+
+    /**
+     * Drops entries that have not been used for a day and writes the rest to disk.
+     */
+    synchronized void persist() {
+        final long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> now - entry.lastUsed > MAX_IDLE_MILLIS);
+        LOG.info("Page cache: " + notModified.getAndSet(0) + " pages not modified, " + downloaded.getAndSet(0)
+                + " pages downloaded, " + entries.size() + " pages cached.");
+        final Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (final Map.Entry<String, Entry> e : entries.entrySet()) {
+                final Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeUTF(entry.etag);
+                out.writeLong(entry.fingerprint);
+                out.writeInt(entry.pageCount);
+                out.writeLong(entry.lastUsed);
+                out.writeInt(entry.volumes.size());
+                final IOException[] failure = new IOException[1];
+                entry.volumes.forEach((locationId, typeId, isBuy, volume, orderCount, bestPrice) -> {
+                    try {
+                        out.writeLong(MarketVolumes.pack(locationId, typeId, isBuy));
+                        out.writeLong(volume);
+                        out.writeInt(orderCount);
+                        out.writeLong(bestPrice);
+                    } catch (IOException ex) {
+                        failure[0] = ex;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to write page cache to " + file + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Failed to replace page cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final String etag = in.readUTF();
+                final long fingerprint = in.readLong();
+                final int pageCount = in.readInt();
+                final long lastUsed = in.readLong();
+                final int size = in.readInt();
+                final MarketVolumes volumes = new MarketVolumes(size);
+                for (int j = 0; j < size; j++) {
+                    volumes.add(in.readLong(), in.readLong(), in.readInt(), in.readLong());
+                }
+                entries.putIfAbsent(key, new Entry(etag, fingerprint, pageCount, volumes, lastUsed));
+            }
+            LOG.info("Loaded " + entries.size() + " cached pages from " + file);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable page cache " + file + ": " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    static class Entry {
+        private final String etag;
+        private final long fingerprint;
+        private final int pageCount;
+        private final MarketVolumes volumes;
+        private volatile long lastUsed;
+
+        private Entry(String etag, long fingerprint, int pageCount, MarketVolumes volumes, long lastUsed) {
+            this.etag = etag;
+            this.fingerprint = fingerprint;
+            this.pageCount = pageCount;
+            this.volumes = volumes;
+            this.lastUsed = lastUsed;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        int getPageCount() {
+            return pageCount;
+        }
+    }
+}
@@ -5,8 +5,9 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.api.ApiGatewayResponse;
 import com.eve.marketwatch.exceptions.BadRequestException;
-import com.eve.marketwatch.exceptions.UnknownUserException;
+import com.eve.marketwatch.exceptions.EsiUnavailableException;
 import com.eve.marketwatch.model.dao.ItemSnapshot;
+import com.eve.marketwatch.model.dao.ItemSnapshotHistoryRepository;
 import com.eve.marketwatch.model.dao.ItemSnapshotRepository;
 import com.eve.marketwatch.model.dao.ItemWatch;
 import com.eve.marketwatch.model.dao.ItemWatchRepository;
@@ -18,113 +19,309 @@ import com.eve.marketwatch.model.dao.StructureRepository;
 import com.eve.marketwatch.model.dao.User;
 import com.eve.marketwatch.model.dao.UserRepository;
 import com.eve.marketwatch.model.esi.ConstellationInfoResponse;
-import com.eve.marketwatch.model.esi.MarketOrderResponse;
 import com.eve.marketwatch.model.esi.StationInfoResponse;
 import com.eve.marketwatch.model.esi.SystemInfoResponse;
+import com.eve.marketwatch.service.EsiClient;
+import com.eve.marketwatch.service.EsiErrorLimiter;
 import com.eve.marketwatch.service.EveAuthService;
+import com.eve.marketwatch.service.UniverseTopology;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class MarketParser implements RequestHandler<Map<String, Object>, ApiGatewayResponse> {
 
     private static final Logger LOG = LogManager.getLogger(MarketParser.class);
 
-    private final javax.ws.rs.client.Client webClient = ClientBuilder.newClient();
+    private static final int PAGE_THREADS = 20;
+    private static final int STRUCTURE_THREADS = 10;
+    private static final int MAX_IN_FLIGHT_REQUESTS = 20;
+    private static final RetryPolicy PAGE_RETRY_POLICY = new RetryPolicy(4, 1_000, 8_000);
+    private static final int STRUCTURES_PER_WORK_UNIT = 10;
+
+    static final String WORK_UNIT_KEY = "workUnit";
+
+    private final MarketPageCache pageCache = MarketPageCache.getInstance();
+    private final FetchSchedule fetchSchedule = FetchSchedule.getInstance();
+    private final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance();
+    private final ExecutorService pageExecutor = Executors.newFixedThreadPool(PAGE_THREADS);
+    private final ExecutorService structureExecutor = Executors.newFixedThreadPool(STRUCTURE_THREADS);
+    // structures and regions share the page pool but fetch their first page on their own thread
+    private final Semaphore inFlightRequests = new Semaphore(MAX_IN_FLIGHT_REQUESTS);
+    private final EsiClient esiClient = EsiClient.getInstance();
     private final StructureRepository structureRepository;
     private final UserRepository userRepository;
     private final ItemWatchRepository itemWatchRepository;
     private final ItemSnapshotRepository itemSnapshotRepository;
+    private final ItemSnapshotHistoryRepository itemSnapshotHistoryRepository;
     private final EveAuthService eveAuthService;
     private final MailRepository mailRepository;
-
-    private final Map<Integer, Integer> systemToConstellationMappings = new HashMap<>();
-    private final Map<Integer, Integer> constellationToRegionMappings = new HashMap<>();
+    private final UniverseTopology universeTopology;
+    private final MarketWorkDispatcher workDispatcher;
+    private final NotificationCreater notificationCreater;
+    private final WatchEvaluator watchEvaluator = new WatchEvaluator();
+    // evaluate watches right after parsing instead of in the separate WatchChecker and NotificationCreater runs
+    private final boolean pipelineMode;
+
+    private final Map<Integer, Integer> systemToConstellationMappings = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> constellationToRegionMappings = new ConcurrentHashMap<>();
+
+    private ParseMetrics metrics = new ParseMetrics();
+    // all changes of a run share one timestamp in the snapshot history
+    private Instant runStarted = Instant.now();
+    // per run indexes of the user table and of the access tokens that have been handed out during the run
+    private Map<Integer, User> users = new ConcurrentHashMap<>();
+    private Set<String> watchedSnapshotIds = Collections.emptySet();
+    private final Map<Integer, String> accessTokens = new ConcurrentHashMap<>();
+    private final Map<Integer, BadRequestException> failedAccessTokens = new ConcurrentHashMap<>();
+    private WatchIndex watchIndex = new WatchIndex(Collections.emptyList());
+    private WatchStateWriter watchStateWriter;
 
     public MarketParser() {
         structureRepository = StructureRepository.getInstance();
         userRepository = UserRepository.getInstance();
         itemWatchRepository = ItemWatchRepository.getInstance();
         itemSnapshotRepository = ItemSnapshotRepository.getInstance();
+        itemSnapshotHistoryRepository = ItemSnapshotHistoryRepository.getInstance();
         eveAuthService = new EveAuthService();
         mailRepository = MailRepository.getInstance();
+        universeTopology = UniverseTopology.getInstance();
+        final String workerFunction = System.getenv("MARKET_WORKER_FUNCTION");
+        workDispatcher = workerFunction == null || workerFunction.isEmpty()
+                ? new LocalMarketWorkDispatcher(this::processWorkUnits)
+                : new LambdaMarketWorkDispatcher(workerFunction);
+        notificationCreater = new NotificationCreater();
+        pipelineMode = Boolean.parseBoolean(System.getenv("PIPELINE_MODE"));
     }
 
     @Override
     public ApiGatewayResponse handleRequest(Map<String, Object> input, Context context) {
-        doParse();
+        final Object workUnit = input == null ? null : input.get(WORK_UNIT_KEY);
+        if (workUnit != null) {
+            processWorkUnits(Collections.singletonList(MarketWorkUnit.fromPayload(workUnit)));
+        } else {
+            doParse();
+        }
         return ApiGatewayResponse.builder()
                 .setStatusCode(200)
                 .build();
     }
 
+    /**
+     * Plans one work unit per region and per batch of player owned structures and hands them to the workers.
+     */
     void doParse() {
-        final List<ItemSnapshot> itemSnapshots = itemSnapshotRepository.findAll();
+        final Map<Long, Set<Integer>> typeIdsByLocation = itemWatchRepository.findAll().stream()
+                .filter(i -> !i.isDisabled())
+                .collect(Collectors.groupingBy(ItemWatch::getLocationId,
+                        Collectors.mapping(ItemWatch::getTypeId, Collectors.toSet())));
+        final List<Structure> structures = structureRepository.findByIds(typeIdsByLocation.keySet());
+
+        final List<MarketWorkUnit> workUnits = planWorkUnits(structures, typeIdsByLocation);
+        LOG.info("Planned " + workUnits.size() + " work units for " + structures.size() + " markets.");
+        workDispatcher.dispatch(workUnits);
+    }
 
-        final List<ItemWatch> itemWatches = itemWatchRepository.findAll().stream()
-                .filter(i -> !i.isDisabled()).collect(Collectors.toList());
-        final Set<Long> locationIds = itemWatches.stream().map(ItemWatch::getLocationId).collect(Collectors.toSet());
+    private List<MarketWorkUnit> planWorkUnits(final List<Structure> structures, final Map<Long, Set<Integer>> typeIdsByLocation) {
+        final List<MarketWorkUnit> workUnits = new ArrayList<>();
+        groupNpcStructures(structures).forEach((regionId, stations) -> {
+            final List<Long> stationIds = stations.stream().map(Structure::getStructureId).collect(Collectors.toList());
+            workUnits.add(MarketWorkUnit.region(regionId, stationIds, typeIdsAt(stationIds, typeIdsByLocation)));
+        });
 
-        final List<Structure> structures = structureRepository.findAll().stream()
-                .filter(market -> locationIds.contains(market.getStructureId()))
+        final List<Long> playerStructureIds = structures.stream()
+                .filter(structure -> !structure.isNpcStation())
+                .map(Structure::getStructureId)
                 .collect(Collectors.toList());
+        for (int i = 0; i < playerStructureIds.size(); i += STRUCTURES_PER_WORK_UNIT) {
+            final List<Long> structureIds = playerStructureIds.subList(i, Math.min(i + STRUCTURES_PER_WORK_UNIT, playerStructureIds.size()));
+            workUnits.add(MarketWorkUnit.structures(structureIds, typeIdsAt(structureIds, typeIdsByLocation)));
+        }
+        return workUnits;
+    }
 
-        for (final Structure structure : structures) {
-            if (!structure.isNpcStation()) {
-                processPlayerOwnedMarket(itemWatches, structure, itemSnapshots);
+    private static Set<Integer> typeIdsAt(final List<Long> locationIds, final Map<Long, Set<Integer>> typeIdsByLocation) {
+        return locationIds.stream()
+                .flatMap(locationId -> typeIdsByLocation.getOrDefault(locationId, Collections.emptySet()).stream())
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Fetches the markets of the work units and writes their snapshots. Snapshots hold absolute volumes under a
+     * deterministic id, so processing a unit twice or in any order leaves the same snapshots behind.
+     * <p>
+     * In pipeline mode the watches of every fetched source are evaluated as soon as its volumes are known and the
+     * mails for all triggered watches that have not been mailed yet are queued at the end of the run.
+     */
+    void processWorkUnits(final List<MarketWorkUnit> workUnits) {
+        metrics = new ParseMetrics();
+        runStarted = Instant.now();
+        final Set<Long> locationIds = workUnits.stream()
+                .flatMap(unit -> unit.getLocationIds().stream())
+                .collect(Collectors.toSet());
+        // only the watches, users and structures of the units are read, never whole tables
+        final List<ItemWatch> itemWatches = itemWatchRepository.findByLocationIds(locationIds).stream()
+                .filter(i -> !i.isDisabled())
+                .collect(Collectors.toList());
+
+        final Set<Long> structureIds = workUnits.stream()
+                .filter(unit -> !unit.isRegion())
+                .flatMap(unit -> unit.getLocationIds().stream())
+                .collect(Collectors.toSet());
+        final boolean hasStructures = !structureIds.isEmpty();
+        users = hasStructures
+                ? userRepository.findByIds(itemWatches.stream()
+                .filter(watch -> structureIds.contains(watch.getLocationId()))
+                .map(ItemWatch::getCharacterId)
+                .collect(Collectors.toSet())).stream()
+                .collect(Collectors.toConcurrentMap(User::getCharacterId, Function.identity(), (a, b) -> a))
+                : new ConcurrentHashMap<>();
+        accessTokens.clear();
+        failedAccessTokens.clear();
+        watchIndex = new WatchIndex(itemWatches);
+        watchStateWriter = new WatchStateWriter(itemWatchRepository::updateState);
+        watchStateWriter.track(itemWatches);
+
+        watchedSnapshotIds = itemWatches.stream()
+                .map(watch -> ItemSnapshot.createId(watch.getTypeId(), watch.getLocationId(), watch.isBuy()))
+                .collect(Collectors.toSet());
+        final Map<String, ItemSnapshot> itemSnapshots = itemSnapshotRepository.findByIds(watchedSnapshotIds).stream()
+                .collect(Collectors.toMap(ItemSnapshot::getId, Function.identity(), (a, b) -> a));
+
+        // player owned structures are processed in the background while this thread works through the regions
+        final List<Future<?>> structureFutures = new ArrayList<>();
+        if (hasStructures) {
+            final List<Structure> structures = structureRepository.findByIds(structureIds).stream()
+                    .filter(structure -> !structure.isNpcStation())
+                    .collect(Collectors.toList());
+            for (final Structure structure : structures) {
+                structureFutures.add(structureExecutor.submit(() -> {
+                    try {
+                        processPlayerOwnedMarket(itemWatches, structure, itemSnapshots);
+                    } catch (RuntimeException e) {
+                        metrics.sourceFailed();
+                        LOG.error("Failed to process structure " + structure.getStructureId(), e);
+                    }
+                }));
             }
         }
 
-        final Map<Integer, List<Structure>> npcStationsGroupedByRegion = groupNpcStructures(structures);
-        for (Map.Entry<Integer, List<Structure>> entry : npcStationsGroupedByRegion.entrySet()) {
-            final Integer regionId = entry.getKey();
+        for (final MarketWorkUnit workUnit : workUnits) {
+            if (!workUnit.isRegion()) {
+                continue;
+            }
             try {
-                final List<Structure> regionStructures = entry.getValue();
-                processRegion(itemSnapshots, itemWatches, regionId, regionStructures);
+                processRegion(itemSnapshots, itemWatches, workUnit.getRegionId(), new HashSet<>(workUnit.getLocationIds()), workUnit.getTypeIds());
             } catch (BadRequestException e) {
+                metrics.sourceFailed();
                 LOG.error(e);
+            } catch (RuntimeException e) {
+                // e.g. DynamoDB failures, the remaining units and the persisted state must not be lost
+                metrics.sourceFailed();
+                LOG.error("Failed to process region " + workUnit.getRegionId(), e);
             }
         }
 
-        LOG.info("Market parsing complete.");
+        for (final Future<?> future : structureFutures) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                LOG.error(e);
+            }
+        }
+
+        if (pipelineMode) {
+            createNotifications(itemWatches);
+            watchStateWriter.flush();
+        }
+
+        pageCache.persist();
+        fetchSchedule.persist();
+        circuitBreaker.persist();
+        LOG.info("Market parsing of " + workUnits.size() + " work units complete: " + metrics + ", " + EsiErrorLimiter.getInstance());
+        esiClient.logMetrics();
     }
 
-    private void processRegion(List<ItemSnapshot> itemSnapshots, List<ItemWatch> itemWatches, Integer regionId, List<Structure> regionStructures) throws BadRequestException {
-        final Set<Integer> typeIds = itemWatches.stream()
-                .filter(w -> regionStructures.stream().anyMatch(s -> s.getStructureId() == w.getLocationId()))
+    private void processRegion(Map<String, ItemSnapshot> itemSnapshots, List<ItemWatch> itemWatches, Integer regionId, Set<Long> locationIds, List<Integer> plannedTypeIds) throws BadRequestException {
+        final Set<Integer> typeIds = plannedTypeIds != null
+                ? new HashSet<>(plannedTypeIds)
+                : itemWatches.stream()
+                .filter(w -> locationIds.contains(w.getLocationId()))
                 .map(ItemWatch::getTypeId)
                 .collect(Collectors.toSet());
 
-        final List<MarketOrderResponse> regionMarketOrders = getRegionMarketOrders(regionId);
-        final List<MarketOrderResponse> marketOrders = regionMarketOrders
-                .stream()
-                .filter(m -> typeIds.contains(m.getTypeId()))
-                .collect(Collectors.toList());
-
-        for (Structure structure : regionStructures) {
-            final List<MarketOrderResponse> structureMarketOrders = marketOrders.stream()
-                    .filter(o -> o.getLocationId() == structure.getStructureId())
-                    .filter(o -> itemWatches.stream().anyMatch(w -> w.getLocationId() == o.getLocationId()))
-                    .collect(Collectors.toList());
+        final String source = "region " + regionId;
+        final MarketOrderReader reader = new MarketOrderReader(locationIds, typeIds);
+        if (!isDue(source, reader)) {
+            return;
+        }
 
-            final HashMap<Integer, Long> sellVolumes = computeVolumes(filterOrderType(structureMarketOrders, false));
-            writeSnapshots(itemSnapshots, structure.getStructureId(), sellVolumes, false);
+        final MarketOrderPage marketOrders;
+        try {
+            marketOrders = getRegionMarketOrders(regionId, reader);
+        } catch (EsiUnavailableException e) {
+            circuitBreaker.recordFailure(source, System.currentTimeMillis());
+            throw e;
+        }
+        writeSnapshots(itemSnapshots, locationIds, marketOrders.getVolumes());
+        evaluateWatches(locationIds, marketOrders.getVolumes());
+        fetchSchedule.record(source, reader.getFingerprint(), marketOrders);
+        circuitBreaker.recordSuccess(source);
+        metrics.sourceFetched();
+    }
 
-            final HashMap<Integer, Long> buyVolumes = computeVolumes(filterOrderType(structureMarketOrders, true));
-            writeSnapshots(itemSnapshots, structure.getStructureId(), buyVolumes, true);
+    /**
+     * Skips a source while ESI still serves the data of our last fetch and waits for the refresh if it is imminent.
+     */
+    private boolean isDue(final String source, final MarketOrderReader reader) {
+        if (!circuitBreaker.allows(source, System.currentTimeMillis())) {
+            LOG.info("Skipping " + source + " as its circuit breaker is open, keeping the last snapshots.");
+            metrics.sourceSuspended();
+            return false;
         }
+        final long plan = fetchSchedule.plan(source, reader.getFingerprint(), System.currentTimeMillis());
+        if (plan < 0) {
+            LOG.info("Skipping " + source + " as its ESI cache has not expired yet.");
+            metrics.sourceSkipped(fetchSchedule.getPageCount(source));
+            return false;
+        }
+        if (plan > 0) {
+            LOG.info("Waiting " + plan + "ms for the ESI cache of " + source + " to refresh.");
+            try {
+                Thread.sleep(plan);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            metrics.fetchAligned();
+        }
+        return true;
     }
 
     private Map<Integer, List<Structure>> groupNpcStructures(List<Structure> structures) {
@@ -148,24 +345,50 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
         return npcStationsGroupedByRegion;
     }
 
-    private void processPlayerOwnedMarket(final List<ItemWatch> itemWatches, final Structure structure, List<ItemSnapshot> itemSnapshots) {
+    private void processPlayerOwnedMarket(final List<ItemWatch> itemWatches, final Structure structure, Map<String, ItemSnapshot> itemSnapshots) {
         LOG.info("Parsing structure for locationId " + structure.getStructureId());
 
         final Set<Integer> typeIds = itemWatches.stream()
                 .filter(w -> w.getLocationId() == structure.getStructureId())
                 .map(ItemWatch::getTypeId).collect(Collectors.toSet());
 
-        final Optional<Integer> accessCharacterId = findCharacterWithAccess(structure, itemWatches);
-        if (accessCharacterId.isPresent()) {
-            final int characterId = accessCharacterId.get();
+        final MarketOrderReader reader = new MarketOrderReader(Collections.singleton(structure.getStructureId()), typeIds);
+        if (isDue("structure " + structure.getStructureId(), reader)) {
+            processPlayerOwnedMarket(itemWatches, structure, itemSnapshots, reader);
+        }
+    }
+
+    private void processPlayerOwnedMarket(final List<ItemWatch> itemWatches, final Structure structure, Map<String, ItemSnapshot> itemSnapshots, MarketOrderReader reader) {
+        final Set<Integer> triedCharacterIds = new HashSet<>();
+        Optional<User> candidate;
+        while ((candidate = findCharacterWithAccess(structure, itemWatches, triedCharacterIds)).isPresent()) {
+            final User user = candidate.get();
+            final int characterId = user.getCharacterId();
+            triedCharacterIds.add(characterId);
+
+            final String accessToken;
             try {
-                parsePlayerOwnedMarket(typeIds, structure, characterId, itemSnapshots);
-                resetUserErrors(characterId);
-            } catch (BadRequestException | UnknownUserException e) {
+                accessToken = getAccessToken(user);
+            } catch (BadRequestException e) {
+                LOG.warn("No access token for character " + characterId + " to parse structure " + structure.getStructureId());
+                continue;
+            }
+
+            try {
+                parsePlayerOwnedMarket(reader, structure, accessToken, itemSnapshots);
+                resetUserErrors(user);
+                return;
+            } catch (EsiUnavailableException e) {
+                // another character would not fare any better
+                circuitBreaker.recordFailure("structure " + structure.getStructureId(), System.currentTimeMillis());
+                metrics.sourceFailed();
+                LOG.warn("Failed to parse structure " + structure.getStructureId() + ": " + e.getMessage());
+                return;
+            } catch (BadRequestException e) {
 
                 if (e.getMessage().contains("invalid_token")) {
                     LOG.warn("Got an invalid_token for " + characterId);
-                    updateUserErrors(characterId);
+                    updateUserErrors(user);
                 }
                 if (e.getMessage().contains("Market access denied")) {
                     disableWatchesForCharacter(itemWatches, structure, characterId);
@@ -174,10 +397,38 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
                 LOG.warn("Failed to parse structure " + structure.getStructureId() + " with character "
                         + characterId + ": " + e.getMessage());
                 // try again with next character
-                processPlayerOwnedMarket(itemWatches, structure, itemSnapshots);
             }
-        } else {
-            LOG.warn("No character found for " + structure.getStructureId());
+        }
+        metrics.sourceFailed();
+        LOG.warn("No character found for " + structure.getStructureId());
+    }
+
+    /**
+     * Hands out the access token of a character, refreshing it at most once per run no matter how many structures
+     * the character is used for.
+     */
+    private String getAccessToken(final User user) throws BadRequestException {
+        synchronized (user) {
+            final String accessToken = accessTokens.get(user.getCharacterId());
+            if (accessToken != null) {
+                return accessToken;
+            }
+            final BadRequestException previousFailure = failedAccessTokens.get(user.getCharacterId());
+            if (previousFailure != null) {
+                throw previousFailure;
+            }
+            try {
+                final String refreshedToken = eveAuthService.getAccessToken(user);
+                accessTokens.put(user.getCharacterId(), refreshedToken);
+                return refreshedToken;
+            } catch (BadRequestException e) {
+                failedAccessTokens.put(user.getCharacterId(), e);
+                if (e.getMessage().contains("invalid_token")) {
+                    LOG.warn("Got an invalid_token for " + user.getCharacterId());
+                    updateUserErrors(user);
+                }
+                throw e;
+            }
         }
     }
 
@@ -190,36 +441,40 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
                 .forEach(itemWatchRepository::save);
     }
 
-    private void resetUserErrors(int characterId) {
-        userRepository.find(characterId).ifPresent(user -> {
+    private void resetUserErrors(User user) {
+        synchronized (user) {
             if (user.getErrorCount() > 0) {
-                LOG.info("Reset error count for " + characterId);
+                LOG.info("Reset error count for " + user.getCharacterId());
                 user.resetErrorCount();
                 userRepository.save(user);
             }
-        });
+        }
     }
 
-    private void updateUserErrors(int characterId) {
-        userRepository.find(characterId).ifPresent(user -> {
+    private void updateUserErrors(User user) {
+        synchronized (user) {
+            if (!users.containsKey(user.getCharacterId())) {
+                return;
+            }
 
             user.incrementErrorCount();
 
             if (user.getErrorCount() >= 5) {
                 createDeactivationMail(user);
                 userRepository.delete(user);
+                users.remove(user.getCharacterId());
                 LOG.info(user.getCharacterId() + " has been deleted due to too many client errors.");
             } else {
                 userRepository.save(user);
             }
-        });
+        }
     }
 
     private void createDeactivationMail(User user) {
         final Mail mail = new Mail();
         mail.setCreated(new Date());
         mail.setMailStatus(MailStatus.NEW);
-        mail.setPriority(1);
+        mail.setPriority(Mail.PRIORITY_DEACTIVATION);
         mail.setRecipient(user.getCharacterId());
         mail.setSubject("Eve Market Watch - Deactivated");
         mail.setText("Your account at <a href=\"https://eve-market-watch.firebaseapp.com\">https://eve-market-watch.firebaseapp.com</a> has been deactivated due to an " +
@@ -227,127 +482,329 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
         mailRepository.save(mail);
     }
 
-    private void parsePlayerOwnedMarket(Set<Integer> typeIds, final Structure structure, final int characterId, List<ItemSnapshot> itemSnapshots) throws BadRequestException, UnknownUserException {
-        final long locationId = structure.getStructureId();
-        final List<MarketOrderResponse> marketOrders = getPlayerStructureMarketOrders(characterId, structure)
-                .stream()
-                .filter(m -> typeIds.contains(m.getTypeId()))
-                .collect(Collectors.toList());
-
-        final HashMap<Integer, Long> sellVolumes = computeVolumes(filterOrderType(marketOrders, false));
-        writeSnapshots(itemSnapshots, locationId, sellVolumes, false);
-
-        final HashMap<Integer, Long> buyVolumes = computeVolumes(filterOrderType(marketOrders, true));
-        writeSnapshots(itemSnapshots, locationId, buyVolumes, true);
-    }
+    private void parsePlayerOwnedMarket(MarketOrderReader reader, final Structure structure, final String accessToken, Map<String, ItemSnapshot> itemSnapshots) throws BadRequestException {
+        final MarketOrderPage marketOrders = getPlayerStructureMarketOrders(accessToken, structure, reader);
 
-    private List<MarketOrderResponse> filterOrderType(List<MarketOrderResponse> marketOrders, boolean isBuy) {
-        return marketOrders.stream()
-                .filter(marketOrderResponse -> isBuy == marketOrderResponse.isBuyOrder())
-                .collect(Collectors.toList());
+        writeSnapshots(itemSnapshots, Collections.singleton(structure.getStructureId()), marketOrders.getVolumes());
+        evaluateWatches(Collections.singleton(structure.getStructureId()), marketOrders.getVolumes());
+        fetchSchedule.record("structure " + structure.getStructureId(), reader.getFingerprint(), marketOrders);
+        circuitBreaker.recordSuccess("structure " + structure.getStructureId());
+        metrics.sourceFetched();
     }
 
-    private void writeSnapshots(List<ItemSnapshot> existingSnapshots, long locationId, HashMap<Integer, Long> volumes, boolean isBuy) {
-        for (final Map.Entry<Integer, Long> entry : volumes.entrySet()) {
-            final int typeId = entry.getKey();
-            final long amount = entry.getValue();
-            final boolean alreadyExists = existingSnapshots.stream()
-                    .filter(w -> w.isBuy() == isBuy)
-                    .filter(w -> w.getAmount() == amount)
-                    .anyMatch(w -> w.getTypeId() == typeId && w.getLocationId() == locationId);
-            if (!alreadyExists) {
+    /**
+     * Writes the snapshots of a completely fetched source. A watched type that has sold out is missing from the
+     * volumes, its snapshot drops to zero so that the history shows the sell-out.
+     */
+    private void writeSnapshots(Map<String, ItemSnapshot> existingSnapshots, Set<Long> locationIds, MarketVolumes volumes) {
+        volumes.forEach((locationId, typeId, isBuy, amount, orderCount, bestPrice) -> {
+            final String id = ItemSnapshot.createId(typeId, locationId, isBuy);
+            if (!watchedSnapshotIds.contains(id)) {
+                // the listing covers every watched type at every watched location of the source, no watch needs this
+                return;
+            }
+            final ItemSnapshot existingSnapshot = existingSnapshots.get(id);
+            if (existingSnapshot != null && existingSnapshot.getAmount() == amount
+                    && Objects.equals(existingSnapshot.getOrderCount(), orderCount)
+                    && Objects.equals(existingSnapshot.getBestPrice(), bestPrice)) {
+                metrics.snapshotUnchanged();
+            } else {
+                if (existingSnapshot == null) {
+                    metrics.snapshotCreated();
+                } else {
+                    metrics.snapshotChanged();
+                }
                 final ItemSnapshot itemSnapshot = new ItemSnapshot();
-                itemSnapshot.setId(typeId + "-" + locationId + "-" + (isBuy ? "buy" : "sell"));
+                itemSnapshot.setId(id);
                 itemSnapshot.setTypeId(typeId);
                 itemSnapshot.setAmount(amount);
                 itemSnapshot.setLocationId(locationId);
                 itemSnapshot.setBuy(isBuy);
+                itemSnapshot.setOrderCount(orderCount);
+                itemSnapshot.setBestPrice(bestPrice);
                 itemSnapshotRepository.save(itemSnapshot);
+                final long previousAmount = existingSnapshot == null ? 0 : existingSnapshot.getAmount();
+                if (previousAmount != amount) {
+                    appendHistory(id, amount);
+                }
+            }
+        });
+
+        for (final long locationId : locationIds) {
+            for (final long key : watchIndex.keysAt(locationId)) {
+                final int typeId = MarketVolumes.typeId(key);
+                final boolean isBuy = MarketVolumes.isBuy(key);
+                if (volumes.get(locationId, typeId, isBuy) >= 0) {
+                    continue;
+                }
+                final ItemSnapshot existingSnapshot = existingSnapshots.get(ItemSnapshot.createId(typeId, locationId, isBuy));
+                if (existingSnapshot == null || existingSnapshot.getAmount() == 0) {
+                    continue;
+                }
+                metrics.snapshotChanged();
+                final ItemSnapshot itemSnapshot = new ItemSnapshot();
+                itemSnapshot.setId(existingSnapshot.getId());
+                itemSnapshot.setTypeId(typeId);
+                itemSnapshot.setAmount(0);
+                itemSnapshot.setLocationId(locationId);
+                itemSnapshot.setBuy(isBuy);
+                itemSnapshot.setOrderCount(0);
+                itemSnapshotRepository.save(itemSnapshot);
+                appendHistory(itemSnapshot.getId(), 0);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the watches of a freshly fetched source against its volumes. A watched type without a single order
+     * is missing from the volumes, it is evaluated like a missing snapshot.
+     */
+    private void evaluateWatches(final Set<Long> locationIds, final MarketVolumes volumes) {
+        if (!pipelineMode) {
+            return;
+        }
+        final Consumer<ItemWatch> changed = watch -> {
+            if (watch.isTriggered()) {
+                metrics.watchTriggered();
+            } else {
+                metrics.watchReset();
+            }
+            watchStateWriter.changed(watch);
+        };
+        for (final long locationId : locationIds) {
+            for (final long key : watchIndex.keysAt(locationId)) {
+                if (volumes.get(locationId, MarketVolumes.typeId(key), MarketVolumes.isBuy(key)) >= 0) {
+                    watchIndex.evaluate(key, metric -> WatchEvaluator.value(volumes, key, metric), changed);
+                    continue;
+                }
+                watchIndex.update(key, watch -> watchEvaluator.apply(watch, watchEvaluator.evaluateMissing(watch)), changed);
             }
         }
     }
 
-    private HashMap<Integer, Long> computeVolumes(List<MarketOrderResponse> marketOrders) {
-        final HashMap<Integer, Long> volumes = new HashMap<>();
-        for (final MarketOrderResponse order : marketOrders) {
-            volumes.computeIfPresent(order.getTypeId(), (integer, aLong) -> aLong + order.getVolumeRemain());
-            volumes.putIfAbsent(order.getTypeId(), (long) order.getVolumeRemain());
+    private void createNotifications(final List<ItemWatch> itemWatches) {
+        final List<ItemWatch> pendingWatches = itemWatches.stream()
+                .filter(watch -> watch.isTriggered() && !watch.isMailSent())
+                .collect(Collectors.toList());
+        // watches of deleted characters stay triggered without a mail, as in NotificationCreater#doCreate
+        final Set<Integer> characterIds = pendingWatches.stream()
+                .map(ItemWatch::getCharacterId)
+                .filter(characterId -> !users.containsKey(characterId))
+                .collect(Collectors.toSet());
+        final Set<Integer> knownCharacterIds = userRepository.findByIds(characterIds).stream()
+                .map(User::getCharacterId)
+                .collect(Collectors.toSet());
+        knownCharacterIds.addAll(users.keySet());
+        final List<ItemWatch> triggeredWatches = pendingWatches.stream()
+                .filter(watch -> knownCharacterIds.contains(watch.getCharacterId()))
+                .collect(Collectors.toList());
+        if (!triggeredWatches.isEmpty()) {
+            notificationCreater.createNotifications(triggeredWatches, watchStateWriter);
+        }
+    }
+
+    private void appendHistory(final String snapshotId, final long amount) {
+        try {
+            itemSnapshotHistoryRepository.append(snapshotId, runStarted, amount);
+        } catch (RuntimeException e) {
+            // the snapshot itself has been written, every point holds its absolute amount, so the history only misses
+            // this change
+            LOG.warn("Failed to append history of " + snapshotId + ": " + e.getMessage());
         }
-        return volumes;
     }
 
-    private List<MarketOrderResponse> getRegionMarketOrders(final int regionId) throws BadRequestException {
-        int page = 1;
-        List<MarketOrderResponse> marketOrders = new ArrayList<>();
-        List<MarketOrderResponse> chunk;
-        do {
-            LOG.info("Loading market orders for regionId/page: " + regionId + "/" + page);
-            chunk = getRegionMarketOrders(regionId, page++);
-            LOG.info("Collected page " + page + " with size " + chunk.size());
-            marketOrders.addAll(chunk);
-        } while (!chunk.isEmpty());
-        return marketOrders;
+    private MarketOrderPage getRegionMarketOrders(final int regionId, final MarketOrderReader reader) throws BadRequestException {
+        final String path = "/v1/markets/" + regionId + "/orders/";
+        return getAllPages("region " + regionId, page -> getMarketOrders(path, null, page, reader, "region " + regionId));
     }
 
-    private List<MarketOrderResponse> getRegionMarketOrders(int regionId, int page) throws BadRequestException {
-        final Response response = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v1/markets/" + regionId + "/orders/")
-                .queryParam("page", page)
-                .request()
-                .get();
+    private MarketOrderPage getPlayerStructureMarketOrders(final String accessToken, final Structure structure, final MarketOrderReader reader) throws BadRequestException {
+        final String path = "/v1/markets/structures/" + structure.getStructureId() + "/";
+        final String source = "structure " + structure.getStructureId();
+        return getAllPages(source, page -> getMarketOrders(path, accessToken, page, reader, source));
+    }
 
-        final String json = response.readEntity(String.class);
-        if (response.getStatus() == 200) {
-            return Arrays.asList(new GsonBuilder().create().fromJson(json, MarketOrderResponse[].class));
+    private MarketOrderPage getMarketOrders(final String path, final String accessToken, final int page, final MarketOrderReader reader, final String source) throws BadRequestException {
+        try {
+            inFlightRequests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BadRequestException("Interrupted while waiting to load " + source + "/" + page);
+        }
+        try {
+            return requestMarketOrders(path, accessToken, page, reader, source);
+        } finally {
+            inFlightRequests.release();
+        }
+    }
+
+    private MarketOrderPage requestMarketOrders(final String path, final String accessToken, final int page, final MarketOrderReader reader, final String source) throws BadRequestException {
+        LOG.info("Loading market orders for " + source + "/" + page);
+        final String cacheKey = MarketPageCache.key(path, page);
+        final MarketPageCache.Entry cached = pageCache.get(cacheKey, reader.getFingerprint());
+
+        final EsiClient.Request request = esiClient.path(path)
+                .queryParam("page", page);
+        if (accessToken != null) {
+            request.bearer(accessToken);
+        }
+        if (cached != null) {
+            request.header("If-None-Match", cached.getEtag());
+        }
+
+        final Response response;
+        try {
+            response = request.get();
+        } catch (ProcessingException e) {
+            throw new EsiUnavailableException(0, "Failed to retrieve market orders for " + source + ": " + e.getMessage());
+        }
+
+        if (response.getStatus() == 304 && cached != null) {
+            final int pageCount = response.getHeaderString("X-Pages") != null ? getPageCount(response) : cached.getPageCount();
+            final long expires = FetchSchedule.parseHttpDate(response.getHeaderString("Expires"));
+            final long lastModified = FetchSchedule.parseHttpDate(response.getHeaderString("Last-Modified"));
+            response.close();
+            return new MarketOrderPage(pageCache.reuse(cached), pageCount, expires, lastModified);
+        } else if (response.getStatus() == 200) {
+            final String etag = response.getHeaderString("ETag");
+            final MarketOrderPage marketOrderPage = readPage(response, reader, source);
+            pageCache.put(cacheKey, etag, reader.getFingerprint(),
+                    marketOrderPage.getPageCount(), marketOrderPage.getVolumes());
+            return marketOrderPage;
         } else {
+            final String json = response.readEntity(String.class);
             LOG.warn(json);
-            throw new BadRequestException("Failed to retrieve market orders for region " + regionId);
+            if (response.getStatus() >= 500 || response.getStatus() == 420) {
+                throw new EsiUnavailableException(response.getStatus(), "Failed to retrieve market orders for " + source + ": " + json);
+            }
+            throw new BadRequestException("Failed to retrieve market orders for " + source + ": " + json);
         }
     }
 
-    private List<MarketOrderResponse> getPlayerStructureMarketOrders(final int characterId, final Structure structure) throws BadRequestException, UnknownUserException {
+    /**
+     * Loads the first page to learn the page count from the X-Pages header and then fetches the remaining pages
+     * concurrently. The pages are merged in page order, a page that still fails after its retries fails the source.
+     * Only a complete listing is ever returned, so a failed source keeps its last snapshots.
+     */
+    private MarketOrderPage getAllPages(final String source, final PageFetcher fetcher) throws BadRequestException {
+        final MarketOrderPage firstPage = getPageWithRetry(source, fetcher, 1);
+        final int pageCount = firstPage.getPageCount();
+
+        final List<Future<MarketOrderPage>> futures = new ArrayList<>();
+        for (int page = 2; page <= pageCount; page++) {
+            final int currentPage = page;
+            futures.add(pageExecutor.submit(() -> {
+                try {
+                    return getPageWithRetry(source, fetcher, currentPage);
+                } catch (BadRequestException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }));
+        }
 
-        int page = 1;
-        List<MarketOrderResponse> marketOrders = new ArrayList<>();
-        final String accessToken = eveAuthService.getAccessToken(characterId);
-        List<MarketOrderResponse> chunk;
-        do {
-            LOG.info("Loading market orders for structureId/page: " + structure.getStructureId() + "/" + page);
-            chunk = getPlayerStructureMarketOrders(structure, accessToken, page++);
-            LOG.info("Collected page " + page + " with size " + chunk.size());
-            marketOrders.addAll(chunk);
-        } while (!chunk.isEmpty());
+        final MarketVolumes volumes = new MarketVolumes();
+        volumes.addAll(firstPage.getVolumes());
+        try {
+            for (final Future<MarketOrderPage> future : futures) {
+                final MarketOrderPage page = future.get();
+                if (page.getPageCount() != pageCount) {
+                    // ESI refreshed its cache while we were fetching, the pages do not belong to the same listing
+                    throw new BadRequestException("Page count of " + source + " changed from " + pageCount
+                            + " to " + page.getPageCount() + " while fetching");
+                }
+                volumes.addAll(page.getVolumes());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof IllegalStateException && e.getCause().getCause() instanceof BadRequestException) {
+                throw (BadRequestException) e.getCause().getCause();
+            }
+            throw new BadRequestException("Failed to retrieve all " + pageCount + " pages for " + source + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new BadRequestException("Interrupted while retrieving the pages of " + source);
+        } catch (BadRequestException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        LOG.info("Collected " + pageCount + " pages for " + source);
+        return new MarketOrderPage(volumes, pageCount, firstPage.getExpires(), firstPage.getLastModified());
+    }
 
-        return marketOrders;
+    /**
+     * Retries a page as long as ESI is unavailable, waiting longer after every attempt. Other failures such as a
+     * revoked token are not going to go away and fail right away.
+     */
+    private MarketOrderPage getPageWithRetry(final String source, final PageFetcher fetcher, final int page) throws BadRequestException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return fetcher.fetch(page);
+            } catch (EsiUnavailableException e) {
+                LOG.warn("Attempt " + attempt + " for page " + page + " of " + source + " failed: " + e.getMessage());
+                if (attempt >= PAGE_RETRY_POLICY.getMaxAttempts()) {
+                    throw e;
+                }
+                metrics.pageRetried();
+                try {
+                    Thread.sleep(PAGE_RETRY_POLICY.backoffMillis(attempt));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
     }
 
-    private List<MarketOrderResponse> getPlayerStructureMarketOrders(final Structure structure, final String accessToken, final int page) throws BadRequestException {
-        final Response response = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v1/markets/structures/" + structure.getStructureId() + "/")
-                .queryParam("page", page)
-                .request()
-                .header("Authorization", "Bearer " + accessToken)
-                .get();
+    private MarketOrderPage readPage(final Response response, final MarketOrderReader reader, final String source) throws BadRequestException {
+        try {
+            final int pageCount = getPageCount(response);
+            final long expires = FetchSchedule.parseHttpDate(response.getHeaderString("Expires"));
+            final long lastModified = FetchSchedule.parseHttpDate(response.getHeaderString("Last-Modified"));
+            return new MarketOrderPage(reader.read(response.readEntity(InputStream.class)), pageCount, expires, lastModified);
+        } catch (IOException | ProcessingException | JsonParseException | IllegalStateException e) {
+            throw new BadRequestException("Failed to read market orders for " + source + ": " + e.getMessage());
+        } finally {
+            response.close();
+        }
+    }
 
-        final String json = response.readEntity(String.class);
-        if (response.getStatus() == 200) {
-            return Arrays.asList(new GsonBuilder().create().fromJson(json, MarketOrderResponse[].class));
-        } else {
-            LOG.warn(json);
-            throw new BadRequestException("Failed to retrieve market orders for " + structure.getStructureId() + ": " + json);
+    private int getPageCount(final Response response) {
+        final String pages = response.getHeaderString("X-Pages");
+        if (pages == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(pages.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid X-Pages header " + pages);
+            return 1;
         }
     }
 
+    private interface PageFetcher {
+        MarketOrderPage fetch(int page) throws BadRequestException;
+    }
+
     private int getRegionId(Structure station) throws BadRequestException {
 
         if (null != station.getRegionId()) {
             return station.getRegionId();
         }
 
+        final OptionalInt bundledRegionId = universeTopology.findRegionIdOfStation(station.getStructureId());
+        if (bundledRegionId.isPresent()) {
+            station.setRegionId(bundledRegionId.getAsInt());
+            return bundledRegionId.getAsInt();
+        }
+
         // todo: pull the region resolution into an upstream lambda. this code is not really market parsing but pre-work
+        LOG.info("Station " + station.getStructureId() + " is not part of the bundled universe topology.");
         final StationInfoResponse stationInfo = getStationInfo(station.getStructureId());
-        final int constellationId = getConstellationId(stationInfo.getSystemId());
-        final int regionId = getRegionId(constellationId);
+        final OptionalInt systemRegionId = universeTopology.findRegionIdOfSystem(stationInfo.getSystemId());
+        final int regionId = systemRegionId.isPresent()
+                ? systemRegionId.getAsInt()
+                : getRegionId(getConstellationId(stationInfo.getSystemId()));
 
         station.setRegionId(regionId);
         structureRepository.save(station);
@@ -378,9 +835,7 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
     }
 
     private ConstellationInfoResponse getConstellationInfo(int constellationId) throws BadRequestException {
-        final Response constellationResponse = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v1/universe/constellations/" + constellationId + "/")
-                .request().get();
+        final Response constellationResponse = esiClient.path("/v1/universe/constellations/" + constellationId + "/").get();
         if (constellationResponse.getStatus() != 200) {
             LOG.warn(constellationResponse.getStatus() + ": " + constellationResponse.readEntity(String.class));
             throw new BadRequestException("Failed to get constellation info for  " + constellationId);
@@ -389,9 +844,7 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
     }
 
     private SystemInfoResponse getSystemInfo(int systemId) throws BadRequestException {
-        final Response systemResponse = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v4/universe/systems/" + systemId + "/")
-                .request().get();
+        final Response systemResponse = esiClient.path("/v4/universe/systems/" + systemId + "/").get();
         if (systemResponse.getStatus() != 200) {
             LOG.warn(systemResponse.getStatus() + ": " + systemResponse.readEntity(String.class));
             throw new BadRequestException("Failed to get system info for  " + systemId);
@@ -400,9 +853,7 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
     }
 
     private StationInfoResponse getStationInfo(long stationId) throws BadRequestException {
-        final Response stationResponse = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v2/universe/stations/" + stationId + "/")
-                .request().get();
+        final Response stationResponse = esiClient.path("/v2/universe/stations/" + stationId + "/").get();
         if (stationResponse.getStatus() != 200) {
             LOG.warn(stationResponse.getStatus() + ": " + stationResponse.readEntity(String.class));
             throw new BadRequestException("Failed to get station info for  " + stationId);
@@ -410,12 +861,14 @@ public class MarketParser implements RequestHandler<Map<String, Object>, ApiGate
         return new GsonBuilder().create().fromJson(stationResponse.readEntity(String.class), StationInfoResponse.class);
     }
 
-    private Optional<Integer> findCharacterWithAccess(final Structure structure, final List<ItemWatch> itemWatches) {
+    private Optional<User> findCharacterWithAccess(final Structure structure, final List<ItemWatch> itemWatches, final Set<Integer> excludedCharacterIds) {
         return itemWatches.stream()
-                .filter(watch -> !watch.isDisabled())
                 .filter(watch -> watch.getLocationId() == structure.getStructureId())
+                .filter(watch -> !watch.isDisabled())
                 .map(ItemWatch::getCharacterId)
-                .filter(characterId -> userRepository.find(characterId).isPresent())
+                .filter(characterId -> !excludedCharacterIds.contains(characterId))
+                .map(users::get)
+                .filter(Objects::nonNull)
                 .findAny();
     }
 }
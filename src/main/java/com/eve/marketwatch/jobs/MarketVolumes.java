@@ -0,0 +1,194 @@
+package com.eve.marketwatch.jobs;
+
+/**
+ * Remaining volume, order count and best price (lowest sell, highest buy) per location, type and order side. Only
+ * watched keys ever end up in here, so the size depends on the number of watches and not on the number of orders
+ * that have been read.
+ * <p>
+ * The (locationId, typeId, isBuy) triple is packed into a single long and kept in an open-addressing table with
+ * linear probing, so aggregating an order neither boxes nor allocates. Prices are kept in hundredths of an ISK.
+ */
+class MarketVolumes {
+
+    interface VolumeConsumer {
+        void accept(long locationId, int typeId, boolean isBuy, long volume, int orderCount, long bestPrice);
+    }
+
+    // structure ids are around 1e12 and need 41 bits, type ids stay well below 2^22
+    private static final int TYPE_BITS = 22;
+    private static final long MAX_LOCATION_ID = (1L << (63 - TYPE_BITS)) - 1;
+    private static final int MAX_TYPE_ID = (1 << TYPE_BITS) - 1;
+    // a packed key is never 0 because location ids are positive
+    private static final long EMPTY = 0L;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] keys;
+    private long[] volumes;
+    private int[] orderCounts;
+    private long[] bestPrices;
+    private int size;
+
+    MarketVolumes() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    MarketVolumes(int expectedSize) {
+        final int capacity = Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1;
+        keys = new long[capacity];
+        volumes = new long[capacity];
+        orderCounts = new int[capacity];
+        bestPrices = new long[capacity];
+    }
+
+    /**
+     * @return whether the ids fit into a packed key
+     */
+    static boolean canPack(long locationId, int typeId) {
+        return locationId > 0 && locationId <= MAX_LOCATION_ID && typeId >= 0 && typeId <= MAX_TYPE_ID;
+    }
+
+    static long pack(long locationId, int typeId, boolean isBuy) {
+        if (!canPack(locationId, typeId)) {
+            throw new IllegalArgumentException("Cannot pack location " + locationId + " and type " + typeId);
+        }
+        return (locationId << (TYPE_BITS + 1)) | ((long) typeId << 1) | (isBuy ? 1L : 0L);
+    }
+
+    static long locationId(long key) {
+        return key >>> (TYPE_BITS + 1);
+    }
+
+    static int typeId(long key) {
+        return (int) ((key >>> 1) & MAX_TYPE_ID);
+    }
+
+    static boolean isBuy(long key) {
+        return (key & 1L) == 1L;
+    }
+
+    static long toPriceCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    /**
+     * Adds a single order.
+     */
+    void add(long locationId, int typeId, boolean isBuy, long volume, long priceCents) {
+        add(pack(locationId, typeId, isBuy), volume, 1, priceCents);
+    }
+
+    void add(long key, long volume, int orderCount, long bestPrice) {
+        int slot = slot(key, keys.length);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                volumes[slot] += volume;
+                orderCounts[slot] += orderCount;
+                bestPrices[slot] = isBuy(key) ? Math.max(bestPrices[slot], bestPrice) : Math.min(bestPrices[slot], bestPrice);
+                return;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        volumes[slot] = volume;
+        orderCounts[slot] = orderCount;
+        bestPrices[slot] = bestPrice;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    void addAll(MarketVolumes other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                add(other.keys[i], other.volumes[i], other.orderCounts[i], other.bestPrices[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the aggregated volume or -1 if no order has been seen for the key
+     */
+    long get(long locationId, int typeId, boolean isBuy) {
+        final int slot = find(locationId, typeId, isBuy);
+        return slot < 0 ? -1 : volumes[slot];
+    }
+
+    /**
+     * @return the number of orders or 0 if no order has been seen for the key
+     */
+    int getOrderCount(long locationId, int typeId, boolean isBuy) {
+        final int slot = find(locationId, typeId, isBuy);
+        return slot < 0 ? 0 : orderCounts[slot];
+    }
+
+    /**
+     * @return the lowest sell or highest buy price in hundredths of an ISK or -1 if no order has been seen for the key
+     */
+    long getBestPrice(long locationId, int typeId, boolean isBuy) {
+        final int slot = find(locationId, typeId, isBuy);
+        return slot < 0 ? -1 : bestPrices[slot];
+    }
+
+    // ids that cannot be packed are never added, so they have not been seen either
+    private int find(long locationId, int typeId, boolean isBuy) {
+        return canPack(locationId, typeId) ? find(pack(locationId, typeId, isBuy)) : -1;
+    }
+
+    void forEach(VolumeConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            final long key = keys[i];
+            if (key != EMPTY) {
+                consumer.accept(locationId(key), typeId(key), isBuy(key), volumes[i], orderCounts[i], bestPrices[i]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        int slot = slot(key, keys.length);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final long[] oldVolumes = volumes;
+        final int[] oldOrderCounts = orderCounts;
+        final long[] oldBestPrices = bestPrices;
+        keys = new long[oldKeys.length * 2];
+        volumes = new long[oldVolumes.length * 2];
+        orderCounts = new int[oldOrderCounts.length * 2];
+        bestPrices = new long[oldBestPrices.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i], keys.length);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                keys[slot] = oldKeys[i];
+                volumes[slot] = oldVolumes[i];
+                orderCounts[slot] = oldOrderCounts[i];
+                bestPrices[slot] = oldBestPrices[i];
+            }
+        }
+    }
+
+    private static int slot(long key, int capacity) {
+        // murmur3 finalizer, the low bits of a packed key are too regular to be used directly
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & (capacity - 1);
+    }
+}
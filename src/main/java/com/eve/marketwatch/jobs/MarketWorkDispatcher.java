@@ -0,0 +1,11 @@
+package com.eve.marketwatch.jobs;
+
+import java.util.List;
+
+/**
+ * Hands the work units planned by the coordinating {@link MarketParser} to the workers that process them.
+ */
+interface MarketWorkDispatcher {
+
+    void dispatch(List<MarketWorkUnit> workUnits);
+}
@@ -0,0 +1,69 @@
+package com.eve.marketwatch.jobs;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A slice of the market parsing run that can be processed on its own: either all watched NPC stations of one region,
+ * which share a single order listing, or a batch of player owned structures. The coordinator hands over the watched
+ * type ids of the unit, so a worker only reads the watches of its own locations.
+ */
+class MarketWorkUnit {
+
+    private static final Gson GSON = new Gson();
+
+    private Integer regionId;
+    private List<Long> locationIds;
+    private List<Integer> typeIds;
+
+    private MarketWorkUnit() {
+    }
+
+    private MarketWorkUnit(Integer regionId, List<Long> locationIds, Collection<Integer> typeIds) {
+        this.regionId = regionId;
+        this.locationIds = new ArrayList<>(locationIds);
+        this.typeIds = new ArrayList<>(typeIds);
+    }
+
+    static MarketWorkUnit region(int regionId, List<Long> stationIds, Collection<Integer> typeIds) {
+        return new MarketWorkUnit(regionId, stationIds, typeIds);
+    }
+
+    static MarketWorkUnit structures(List<Long> structureIds, Collection<Integer> typeIds) {
+        return new MarketWorkUnit(null, structureIds, typeIds);
+    }
+
+    /**
+     * Reads a work unit from the already deserialized payload of a worker invocation.
+     */
+    static MarketWorkUnit fromPayload(Object payload) {
+        return GSON.fromJson(GSON.toJsonTree(payload), MarketWorkUnit.class);
+    }
+
+    boolean isRegion() {
+        return regionId != null;
+    }
+
+    Integer getRegionId() {
+        return regionId;
+    }
+
+    List<Long> getLocationIds() {
+        return locationIds;
+    }
+
+    /**
+     * @return the type ids watched at any location of the unit, null for payloads of an older coordinator
+     */
+    List<Integer> getTypeIds() {
+        return typeIds;
+    }
+
+    @Override
+    public String toString() {
+        return isRegion() ? "region " + regionId + " " + locationIds : "structures " + locationIds;
+    }
+}
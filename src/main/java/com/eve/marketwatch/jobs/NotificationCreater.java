@@ -15,10 +15,13 @@ import com.eve.marketwatch.model.dao.UserRepository;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class NotificationCreater implements RequestHandler<Map<String, Object>, ApiGatewayResponse> {
@@ -54,48 +57,80 @@ public class NotificationCreater implements RequestHandler<Map<String, Object>,
 	}
 
 	void doCreate() {
-		final Set<Integer> allCharacterIds = userRepository.findAll().stream()
+		final List<ItemWatch> pendingWatches = itemWatchRepository.findPendingNotifications();
+		final Set<Integer> characterIds = userRepository.findByIds(pendingWatches.stream()
+				.map(ItemWatch::getCharacterId).collect(Collectors.toSet())).stream()
 				.map(User::getCharacterId).collect(Collectors.toSet());
-		// todo: move filtering to DB
-		final List<ItemWatch> itemWatches = itemWatchRepository.findAll().stream()
-				.filter(w -> allCharacterIds.contains(w.getCharacterId()))
+		// the index is eventually consistent, the flags are checked again
+		final List<ItemWatch> itemWatches = pendingWatches.stream()
+				.filter(w -> characterIds.contains(w.getCharacterId()))
 				.filter(w -> !w.isMailSent() && w.isTriggered())
-				.sorted((o1, o2) -> o1.getTypeName().compareToIgnoreCase(o2.getTypeName()))
 				.collect(Collectors.toList());
 
-		LOG.info("Found " + itemWatches.size() + " watches that should receive a mail.");
-
-		final Set<Integer> characterIds = itemWatches.stream()
-				.map(ItemWatch::getCharacterId)
-				.collect(Collectors.toSet());
-
-		LOG.info("Creating mail for " + characterIds.size() + " characters.");
+		final WatchStateWriter stateWriter = new WatchStateWriter(itemWatchRepository::updateState);
+		stateWriter.track(itemWatches);
+		createNotifications(itemWatches, stateWriter);
+		stateWriter.flush();
+	}
 
-		for (Integer characterId : characterIds) {
-			List<ItemWatch> watchesForCharacter = itemWatches.stream()
-					.filter(watch -> watch.getCharacterId() == characterId)
-					.collect(Collectors.toList());
+	/**
+	 * Queues one mail per character (and per 100 watches) for the given triggered watches and marks them as mailed.
+	 * The market parser calls this directly in pipeline mode with the watches it has just triggered. The changed
+	 * watches are handed to the state writer, the caller flushes it.
+	 */
+	void createNotifications(List<ItemWatch> triggeredWatches, WatchStateWriter stateWriter) {
+		LOG.info("Found " + triggeredWatches.size() + " watches that should receive a mail.");
 
-			for (int i = 0; i < watchesForCharacter.size(); i+=100) {
-				final int remaining = watchesForCharacter.size() - i;
-				int top = remaining > 100 ? 100 : remaining;
-				final List<ItemWatch> chunk = watchesForCharacter.subList(i, top + i);
-				LOG.info("Sending mail with " + chunk.size() + " watches to " + characterId);
-				process(characterId, chunk);
+		// character -> structure -> watches, structures in the order of their first watch by type name
+		final Map<Integer, Map<Long, List<ItemWatch>>> watchesByCharacter = triggeredWatches.stream()
+				.sorted((o1, o2) -> o1.getTypeName().compareToIgnoreCase(o2.getTypeName()))
+				.collect(Collectors.groupingBy(ItemWatch::getCharacterId,
+						Collectors.groupingBy(ItemWatch::getLocationId, LinkedHashMap::new, Collectors.toList())));
+		final Set<Long> structureIds = watchesByCharacter.values().stream()
+				.flatMap(watchesByStructure -> watchesByStructure.keySet().stream())
+				.collect(Collectors.toSet());
+		final Map<Long, Structure> structures = structureRepository.findByIds(structureIds).stream()
+				.collect(Collectors.toMap(Structure::getStructureId, Function.identity(), (a, b) -> a));
+
+		LOG.info("Creating mail for " + watchesByCharacter.size() + " characters.");
+
+		watchesByCharacter.forEach((characterId, watchesByStructure) -> {
+			Map<Long, List<ItemWatch>> chunk = new LinkedHashMap<>();
+			int chunkSize = 0;
+			for (final Map.Entry<Long, List<ItemWatch>> entry : watchesByStructure.entrySet()) {
+				for (final ItemWatch watch : entry.getValue()) {
+					if (chunkSize == 100) {
+						process(characterId, chunk, chunkSize, structures, stateWriter);
+						chunk = new LinkedHashMap<>();
+						chunkSize = 0;
+					}
+					chunk.computeIfAbsent(entry.getKey(), structureId -> new ArrayList<>()).add(watch);
+					chunkSize++;
+				}
 			}
-		}
+			if (chunkSize > 0) {
+				process(characterId, chunk, chunkSize, structures, stateWriter);
+			}
+		});
 	}
 
-	private void process(final int characterId, List<ItemWatch> watchesForCharacter) {
-		LOG.info("Creating mail for " + characterId);
-		final String text = buildText(watchesForCharacter);
+	private void process(final int characterId, Map<Long, List<ItemWatch>> watchesByStructure, int watchCount,
+						 Map<Long, Structure> structures, WatchStateWriter stateWriter) {
+		LOG.info("Creating mail with " + watchCount + " watches for " + characterId);
+		final String text = buildText(watchesByStructure, structures);
 		final Mail mail = createMail(characterId, text);
 		mailRepository.save(mail);
+
+		watchesByStructure.values().forEach(watches -> watches.forEach(w -> {
+			w.setMailSent(true);
+			stateWriter.changed(w);
+		}));
 	}
 
 	private Mail createMail(final int characterId, final String text) {
 		final Mail mail = new Mail();
-		mail.setPriority(10);
+		mail.setCreated(new Date());
+		mail.setPriority(Mail.PRIORITY_NOTIFICATION);
 		mail.setRecipient(characterId);
 		mail.setSubject("Market watch notification");
 		mail.setText(text);
@@ -103,36 +138,41 @@ public class NotificationCreater implements RequestHandler<Map<String, Object>,
 		return mail;
 	}
 
-	private String buildText(List<ItemWatch> itemWatches) {
-		final List<Structure> structures = itemWatches.stream()
-				.map(ItemWatch::getLocationId).distinct()
-				.map(structureRepository::find)
-				.map(Optional::get).collect(Collectors.toList());
-
+	String buildText(Map<Long, List<ItemWatch>> watchesByStructure, Map<Long, Structure> structures) {
 		final StringBuilder builder = new StringBuilder();
 		builder.append("Hi!\nThis is your overview of market notifications from <a href=\"https://eve-market-watch.firebaseapp.com\">Eve Market Watch</a>\n\n");
 
-		for (final Structure structure : structures) {
-			// <url=showinfo:47515//1027847407700>GE-8JV - SOTA FACTORY</url>
-			builder.append("<url=showinfo:").append(structure.getTypeId()).append("//")
-					.append(structure.getStructureId()).append(">")
-					.append(structure.getStructureName())
-					.append("</url>")
-					.append("\n\n");
-
-			final List<ItemWatch> marketWatches = itemWatches.stream()
-					.filter(w -> w.getLocationId() == structure.getStructureId()).collect(Collectors.toList());
-			for (final ItemWatch watch : marketWatches) {
+		for (final Map.Entry<Long, List<ItemWatch>> entry : watchesByStructure.entrySet()) {
+			final Structure structure = structures.get(entry.getKey());
+			if (structure == null) {
+				LOG.warn("Unknown structure " + entry.getKey());
+				builder.append("Location ").append(entry.getKey()).append("\n\n");
+			} else {
+				// <url=showinfo:47515//1027847407700>GE-8JV - SOTA FACTORY</url>
+				builder.append("<url=showinfo:").append(structure.getTypeId()).append("//")
+						.append(structure.getStructureId()).append(">")
+						.append(structure.getStructureName())
+						.append("</url>")
+						.append("\n\n");
+			}
+
+			for (final ItemWatch watch : entry.getValue()) {
 				// <url=showinfo:608>Atron</url>
-				if (watch.isBuy()) {
-					builder.append("Buy");
-				} else {
-					builder.append("Sell");
+				final String metric = watch.getMetric() == null ? "volume" : watch.getMetric();
+				switch (metric) {
+					case "orders":
+						builder.append(watch.isBuy() ? "Buy" : "Sell").append(" order count for ");
+						break;
+					case "price":
+						builder.append(watch.isBuy() ? "Highest buy" : "Lowest sell").append(" price for ");
+						break;
+					case "volume":
+					default:
+						builder.append(watch.isBuy() ? "Buy" : "Sell").append(" orders for ");
 				}
-				builder.append(" orders for ");
 				builder.append("<url=showinfo:").append(watch.getTypeId()).append(">")
 						.append(watch.getTypeName())
-						.append("</url> are ");
+						.append("</url> ").append("volume".equals(metric) ? "are " : "is ");
 
 				final String comparator = watch.getComparator() == null ? "lt" : watch.getComparator();
 				switch (comparator) {
@@ -149,17 +189,23 @@ public class NotificationCreater implements RequestHandler<Map<String, Object>,
 					default:
 						builder.append("below");
 				}
-				builder.append(" ").append(watch.getThreshold()).append(" units.\n");
+				builder.append(" ").append(watch.getThreshold());
+				switch (metric) {
+					case "orders":
+						builder.append(" orders.\n");
+						break;
+					case "price":
+						builder.append(" ISK.\n");
+						break;
+					case "volume":
+					default:
+						builder.append(" units.\n");
+				}
 			}
 			// todo: section styling
 			builder.append("\n\n");
 		}
 
-		itemWatches.forEach(w -> {
-			w.setMailSent(true);
-			itemWatchRepository.save(w);
-		});
-
 		return builder.toString();
 	}
 
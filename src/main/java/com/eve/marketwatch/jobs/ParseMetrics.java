@@ -0,0 +1,85 @@
+package com.eve.marketwatch.jobs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters of a single market parsing run. They are logged once the run is complete.
+ */
+class ParseMetrics {
+
+    private final AtomicInteger fetchedSources = new AtomicInteger();
+    private final AtomicInteger failedSources = new AtomicInteger();
+    private final AtomicInteger skippedSources = new AtomicInteger();
+    private final AtomicInteger suspendedSources = new AtomicInteger();
+    private final AtomicInteger retriedPages = new AtomicInteger();
+    private final AtomicInteger savedPageCalls = new AtomicInteger();
+    private final AtomicInteger alignedFetches = new AtomicInteger();
+    private final AtomicInteger unchangedSnapshots = new AtomicInteger();
+    private final AtomicInteger changedSnapshots = new AtomicInteger();
+    private final AtomicInteger newSnapshots = new AtomicInteger();
+    private final AtomicInteger triggeredWatches = new AtomicInteger();
+    private final AtomicInteger resetWatches = new AtomicInteger();
+
+    void sourceFetched() {
+        fetchedSources.incrementAndGet();
+    }
+
+    void sourceFailed() {
+        failedSources.incrementAndGet();
+    }
+
+    void sourceSkipped(int pageCount) {
+        skippedSources.incrementAndGet();
+        savedPageCalls.addAndGet(pageCount);
+    }
+
+    void sourceSuspended() {
+        suspendedSources.incrementAndGet();
+    }
+
+    void pageRetried() {
+        retriedPages.incrementAndGet();
+    }
+
+    void fetchAligned() {
+        alignedFetches.incrementAndGet();
+    }
+
+    void snapshotUnchanged() {
+        unchangedSnapshots.incrementAndGet();
+    }
+
+    void snapshotChanged() {
+        changedSnapshots.incrementAndGet();
+    }
+
+    void snapshotCreated() {
+        newSnapshots.incrementAndGet();
+    }
+
+    void watchTriggered() {
+        triggeredWatches.incrementAndGet();
+    }
+
+    void watchReset() {
+        resetWatches.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "ParseMetrics{" +
+                "fetchedSources=" + fetchedSources +
+                ", failedSources=" + failedSources +
+                ", skippedSources=" + skippedSources +
+                ", suspendedSources=" + suspendedSources +
+                ", retriedPages=" + retriedPages +
+                ", savedPageCalls=" + savedPageCalls +
+                ", alignedFetches=" + alignedFetches +
+                ", unchangedSnapshots=" + unchangedSnapshots +
+                ", changedSnapshots=" + changedSnapshots +
+                ", newSnapshots=" + newSnapshots +
+                ", triggeredWatches=" + triggeredWatches +
+                ", resetWatches=" + resetWatches +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+package com.eve.marketwatch.jobs;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter. Half of the delay is fixed and the other half random, so the page requests of a
+ * source that failed at the same time do not hit ESI again at the same time.
+ */
+class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random;
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this(maxAttempts, baseDelayMillis, maxDelayMillis, new Random());
+    }
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt that just failed, starting at 1
+     * @return the milliseconds to wait before the next attempt
+     */
+    long backoffMillis(int attempt) {
+        final long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        final long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+}
@@ -2,7 +2,6 @@ package com.eve.marketwatch.jobs;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.eve.marketwatch.Constants;
 import com.eve.marketwatch.api.ApiGatewayResponse;
 import com.eve.marketwatch.exceptions.BadRequestException;
 import com.eve.marketwatch.exceptions.UnknownUserException;
@@ -10,11 +9,11 @@ import com.eve.marketwatch.model.dao.ItemWatch;
 import com.eve.marketwatch.model.dao.ItemWatchRepository;
 import com.eve.marketwatch.model.dao.Structure;
 import com.eve.marketwatch.model.dao.StructureRepository;
+import com.eve.marketwatch.service.EsiClient;
 import com.eve.marketwatch.service.EveAuthService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.Response;
 import java.util.List;
 import java.util.Map;
@@ -27,7 +26,7 @@ public class UpdateDisabledWatches implements RequestHandler<Map<String, Object>
 
     private static final Logger LOG = LogManager.getLogger(UpdateDisabledWatches.class);
 
-    private final javax.ws.rs.client.Client webClient = ClientBuilder.newClient();
+    private final EsiClient esiClient = EsiClient.getInstance();
     private final StructureRepository structureRepository;
     private final ItemWatchRepository itemWatchRepository;
     private final EveAuthService eveAuthService;
@@ -81,11 +80,10 @@ public class UpdateDisabledWatches implements RequestHandler<Map<String, Object>
     }
 
     private boolean hasMarketAccess(final Structure structure, final String accessToken) {
-        final Response response = webClient.target(Constants.ESI_BASE_URL)
-                .path("/v1/markets/structures/" + structure.getStructureId() + "/")
-                .request()
-                .header("Authorization", "Bearer " + accessToken)
+        final Response response = esiClient.path("/v1/markets/structures/" + structure.getStructureId() + "/")
+                .bearer(accessToken)
                 .get();
+        response.close();
 
         return response.getStatus() == 200;
     }
@@ -13,6 +13,8 @@ import org.apache.logging.log4j.Logger;
 import java.sql.Date;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +25,7 @@ public class WatchChecker implements RequestHandler<Map<String, Object>, ApiGate
 
 	private final ItemWatchRepository itemWatchRepository;
 	private final ItemSnapshotRepository itemSnapshotRepository;
+	private final WatchEvaluator watchEvaluator = new WatchEvaluator();
 
 	public WatchChecker() {
 		itemWatchRepository = ItemWatchRepository.getInstance();
@@ -48,88 +51,55 @@ public class WatchChecker implements RequestHandler<Map<String, Object>, ApiGate
 		final List<ItemSnapshot> itemSnapshots = itemSnapshotRepository.findAll();
 
 		LOG.info("Checking " + itemWatches.size() + " watches against " + itemSnapshots.size() + " snapshots.");
-		for (final ItemWatch watch : itemWatches) {
-			checkWatch(itemSnapshots, watch);
-		}
-
+		final WatchStateWriter stateWriter = new WatchStateWriter(itemWatchRepository::updateState);
+		stateWriter.track(itemWatches);
+		checkWatches(itemWatches, itemSnapshots, Instant.now()).forEach(stateWriter::changed);
+		stateWriter.flush();
 	}
 
-	private void checkWatch(List<ItemSnapshot> itemSnapshots, ItemWatch watch) {
-		for (ItemSnapshot snapshot : itemSnapshots) {
-			if (isSameLocationAndType(watch, snapshot) && watch.isBuy() == snapshot.isBuy()) {
-
-				boolean activatedWatch = false;
-				final String comparator = watch.getComparator() == null ? "lt" : watch.getComparator();
-				LOG.info("Comparing (buy=" + watch.isBuy() + ") " + comparator + " for " + watch.getTypeName() + " with " + snapshot.getAmount() + "/" + watch.getThreshold());
-				switch (comparator) {
-					case "le":
-						if (snapshot.getAmount() <= watch.getThreshold()) {
-							triggerWatch(watch);
-							activatedWatch = true;
-						}
-						break;
-					case "ge":
-						if (snapshot.getAmount() >= watch.getThreshold()) {
-							triggerWatch(watch);
-							activatedWatch = true;
-						}
-						break;
-					case "gt":
-						if (snapshot.getAmount() > watch.getThreshold()) {
-							triggerWatch(watch);
-							activatedWatch = true;
-						}
-						break;
-					case "lt":
-					default:
-						if (snapshot.getAmount() < watch.getThreshold()) {
-							triggerWatch(watch);
-							activatedWatch = true;
-						}
-						break;
-				}
-
-				if (!activatedWatch && (watch.isTriggered() || watch.isMailSent())) {
-					LOG.info("Reset watch: " + watch);
-					watch.reset();
-					itemWatchRepository.save(watch);
-				}
-				return;
-			}
+	/**
+	 * Evaluates the watches per market key: one lookup of the snapshot and one binary search per metric and
+	 * comparator, no matter how many watches share the key.
+	 *
+	 * @return the watches whose state has changed
+	 */
+	List<ItemWatch> checkWatches(List<ItemWatch> itemWatches, List<ItemSnapshot> itemSnapshots, Instant now) {
+		final Map<Long, ItemSnapshot> snapshotsByKey = new HashMap<>(itemSnapshots.size() * 2);
+		for (final ItemSnapshot snapshot : itemSnapshots) {
+			snapshotsByKey.put(MarketVolumes.pack(snapshot.getLocationId(), snapshot.getTypeId(), snapshot.isBuy()), snapshot);
 		}
-		if (isOlderThanMinimumDelay(watch) && !watch.isTriggered() &&
-				(watch.getComparator() == null || watch.getComparator().equals("lt") ||
-						(watch.getComparator().equals("le") && watch.getThreshold() > 0))) {
 
-			handleMissingSnapshot(watch);
+		final WatchIndex watchIndex = new WatchIndex(itemWatches);
+		final List<ItemWatch> changedWatches = new ArrayList<>();
+		for (final long key : watchIndex.keys()) {
+			final ItemSnapshot snapshot = snapshotsByKey.get(key);
+			if (snapshot != null) {
+				// a null value means the snapshot predates the metric, it is filled in by the next market parsing
+				watchIndex.evaluate(key, metric -> WatchEvaluator.value(snapshot, metric), watch -> {
+					LOG.info((watch.isTriggered() ? "Triggered" : "Reset") + " watch: " + watch);
+					changedWatches.add(watch);
+				});
+			} else {
+				watchIndex.update(key, watch -> checkMissingSnapshot(watch, now), changedWatches::add);
+			}
 		}
+		return changedWatches;
 	}
 
-	private void triggerWatch(ItemWatch watch) {
-		if (!watch.isTriggered()) {
-			LOG.info("Triggered watch: " + watch);
-			watch.setTriggered(true);
-			itemWatchRepository.save(watch);
+	private boolean checkMissingSnapshot(ItemWatch watch, Instant now) {
+		final WatchEvaluator.Outcome outcome = watchEvaluator.evaluateMissing(watch);
+		if (outcome == WatchEvaluator.Outcome.NONE) {
+			return false;
 		}
-	}
-
-	private boolean isOlderThanMinimumDelay(final ItemWatch watch) {
-        if (null == watch.getCreated()) {
-            // todo: remove once all entries are migrated (= have a created date)
-            watch.setCreated(Date.from(Instant.now().minus(1, ChronoUnit.HOURS)));
-            itemWatchRepository.save(watch);
-        }
-		return watch.getCreated().before(Date.from(Instant.now().minus(MISSING_DELAY, ChronoUnit.MINUTES)));
-	}
-
-	private void handleMissingSnapshot(ItemWatch watch) {
-		LOG.info("Snapshot is missing and therefore triggered: " + watch);
-		watch.setTriggered(true);
-		itemWatchRepository.save(watch);
-	}
-
-	private boolean isSameLocationAndType(ItemWatch watch, ItemSnapshot snapshot) {
-		return watch.getTypeId() == snapshot.getTypeId() && watch.getLocationId() == snapshot.getLocationId();
+		if (null == watch.getCreated()) {
+			// todo: remove once all entries are migrated (= have a created date)
+			watch.setCreated(Date.from(now.minus(1, ChronoUnit.HOURS)));
+		}
+		if (watch.getCreated().before(Date.from(now.minus(MISSING_DELAY, ChronoUnit.MINUTES)))) {
+			LOG.info("Snapshot is missing and therefore triggered: " + watch);
+			return watchEvaluator.apply(watch, outcome);
+		}
+		return false;
 	}
 
 }
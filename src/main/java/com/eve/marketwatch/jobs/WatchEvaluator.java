@@ -0,0 +1,115 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemSnapshot;
+import com.eve.marketwatch.model.dao.ItemWatch;
+
+/**
+ * Decides whether a watch fires for the current state of its market. It only looks at the watch and the value, so
+ * the same rules apply whether the value comes from a stored snapshot (WatchChecker) or from the volumes that the
+ * market parser has just aggregated (pipeline mode).
+ */
+class WatchEvaluator {
+
+    enum Outcome {
+        TRIGGER, RESET, NONE
+    }
+
+    static String metric(ItemWatch watch) {
+        return watch.getMetric() == null ? "volume" : watch.getMetric();
+    }
+
+    /**
+     * @return the watched value of the snapshot or null if the snapshot predates the metric
+     */
+    static Long value(ItemSnapshot snapshot, String metric) {
+        switch (metric) {
+            case "orders":
+                return snapshot.getOrderCount() == null ? null : snapshot.getOrderCount().longValue();
+            case "price":
+                return snapshot.getBestPrice();
+            case "volume":
+            default:
+                return snapshot.getAmount();
+        }
+    }
+
+    /**
+     * @return the watched value of the packed market key or null if the volumes hold no order for it
+     */
+    static Long value(MarketVolumes volumes, long key, String metric) {
+        final long locationId = MarketVolumes.locationId(key);
+        final int typeId = MarketVolumes.typeId(key);
+        final boolean isBuy = MarketVolumes.isBuy(key);
+        final long volume = volumes.get(locationId, typeId, isBuy);
+        if (volume < 0) {
+            return null;
+        }
+        switch (metric) {
+            case "orders":
+                return (long) volumes.getOrderCount(locationId, typeId, isBuy);
+            case "price":
+                return volumes.getBestPrice(locationId, typeId, isBuy);
+            case "volume":
+            default:
+                return volume;
+        }
+    }
+
+    /**
+     * Compares the value with the threshold of the watch, price thresholds are given in ISK and values in hundredths.
+     */
+    Outcome evaluate(ItemWatch watch, long value) {
+        final String comparator = watch.getComparator() == null ? "lt" : watch.getComparator();
+        final long threshold = "price".equals(metric(watch)) ? watch.getThreshold() * 100 : watch.getThreshold();
+        final boolean matches;
+        switch (comparator) {
+            case "le":
+                matches = value <= threshold;
+                break;
+            case "ge":
+                matches = value >= threshold;
+                break;
+            case "gt":
+                matches = value > threshold;
+                break;
+            case "lt":
+            default:
+                matches = value < threshold;
+                break;
+        }
+        if (matches) {
+            return watch.isTriggered() ? Outcome.NONE : Outcome.TRIGGER;
+        }
+        return watch.isTriggered() || watch.isMailSent() ? Outcome.RESET : Outcome.NONE;
+    }
+
+    /**
+     * A market without a single order of the watched type. Without orders there is no price, but volume and order
+     * count are zero.
+     */
+    Outcome evaluateMissing(ItemWatch watch) {
+        if (!"price".equals(metric(watch)) && !watch.isTriggered() &&
+                (watch.getComparator() == null || watch.getComparator().equals("lt") ||
+                        (watch.getComparator().equals("le") && watch.getThreshold() > 0))) {
+            return Outcome.TRIGGER;
+        }
+        return Outcome.NONE;
+    }
+
+    /**
+     * @return true if the watch has been changed and has to be saved
+     */
+    boolean apply(ItemWatch watch, Outcome outcome) {
+        switch (outcome) {
+            case TRIGGER:
+                watch.setTriggered(true);
+                return true;
+            case RESET:
+                watch.reset();
+                return true;
+            case NONE:
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemWatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The watches of a set of markets grouped by market key (location, type, side) and, per metric and comparator, sorted
+ * by threshold. The watches that fire for a value form a prefix (gt, ge) or a suffix (lt, le) of such a group, so a
+ * binary search yields the triggered and the untriggered range. Each group remembers where the boundary between its
+ * triggered and untriggered watches is, so only the watches between the old and the new boundary are visited.
+ * <p>
+ * The rules are the ones of {@link WatchEvaluator#evaluate}.
+ */
+class WatchIndex {
+
+    private static final List<String> METRICS = ItemWatch.METRICS;
+    private static final List<String> COMPARATORS = Arrays.asList("lt", "le", "gt", "ge");
+
+    private final Map<Long, List<ThresholdGroup>> groupsByKey = new HashMap<>();
+    private final Map<Long, List<ItemWatch>> watchesByKey = new HashMap<>();
+    private final Map<Long, List<Long>> keysByLocation = new HashMap<>();
+
+    WatchIndex(Collection<ItemWatch> watches) {
+        for (final ItemWatch watch : watches) {
+            final long key = MarketVolumes.pack(watch.getLocationId(), watch.getTypeId(), watch.isBuy());
+            watchesByKey.computeIfAbsent(key, k -> new ArrayList<>(1)).add(watch);
+        }
+        watchesByKey.forEach((key, keyWatches) -> {
+            groupsByKey.put(key, keyWatches.size() == 1
+                    ? Collections.singletonList(new ThresholdGroup(keyWatches))
+                    : groupByMetricAndComparator(keyWatches));
+            keysByLocation.computeIfAbsent(MarketVolumes.locationId(key), l -> new ArrayList<>()).add(key);
+        });
+    }
+
+    private static List<ThresholdGroup> groupByMetricAndComparator(List<ItemWatch> keyWatches) {
+        @SuppressWarnings("unchecked")
+        final List<ItemWatch>[] slots = new List[METRICS.size() * COMPARATORS.size()];
+        for (final ItemWatch watch : keyWatches) {
+            final int slot = slot(watch);
+            if (slots[slot] == null) {
+                slots[slot] = new ArrayList<>();
+            }
+            slots[slot].add(watch);
+        }
+        final List<ThresholdGroup> thresholdGroups = new ArrayList<>(2);
+        for (final List<ItemWatch> group : slots) {
+            if (group != null) {
+                thresholdGroups.add(new ThresholdGroup(group));
+            }
+        }
+        return thresholdGroups;
+    }
+
+    private static int slot(ItemWatch watch) {
+        // unknown metrics and comparators are treated like the defaults by the WatchEvaluator
+        final int metric = Math.max(0, METRICS.indexOf(WatchEvaluator.metric(watch)));
+        final int comparator = Math.max(0, COMPARATORS.indexOf(watch.getComparator() == null ? "lt" : watch.getComparator()));
+        return metric * COMPARATORS.size() + comparator;
+    }
+
+    Set<Long> keys() {
+        return watchesByKey.keySet();
+    }
+
+    List<Long> keysAt(long locationId) {
+        return keysByLocation.getOrDefault(locationId, Collections.emptyList());
+    }
+
+    List<ItemWatch> watches(long key) {
+        return watchesByKey.getOrDefault(key, Collections.emptyList());
+    }
+
+    /**
+     * Changes the watches of a market key outside of the threshold rules, e.g. because the market has no orders.
+     *
+     * @param update  changes a watch and returns whether it has been changed
+     * @param changed receives every changed watch
+     */
+    void update(long key, Predicate<ItemWatch> update, Consumer<ItemWatch> changed) {
+        for (final ItemWatch watch : watches(key)) {
+            if (update.test(watch)) {
+                changed.accept(watch);
+            }
+        }
+        groupsByKey.getOrDefault(key, Collections.emptyList()).forEach(ThresholdGroup::updateStateBoundary);
+    }
+
+    /**
+     * Applies the current values of a market key to its watches.
+     *
+     * @param valueOfMetric the value per metric, null if it is not known and the watches should be left alone
+     * @param changed       receives every watch that has been triggered or reset
+     */
+    void evaluate(long key, Function<String, Long> valueOfMetric, Consumer<ItemWatch> changed) {
+        for (final ThresholdGroup group : groupsByKey.getOrDefault(key, Collections.emptyList())) {
+            final Long value = valueOfMetric.apply(group.metric);
+            if (value != null) {
+                group.evaluate(value, changed);
+            }
+        }
+    }
+
+    static class ThresholdGroup {
+        private final String metric;
+        private final String comparator;
+        private final long[] thresholds;
+        private final ItemWatch[] watches;
+        // all watches on the firing side of this index are triggered, all others are neither triggered nor mailed,
+        // -1 if the stored states do not follow a single boundary
+        private int stateBoundary;
+
+        ThresholdGroup(List<ItemWatch> group) {
+            final ItemWatch first = group.get(0);
+            final int slot = slot(first);
+            metric = METRICS.get(slot / COMPARATORS.size());
+            comparator = COMPARATORS.get(slot % COMPARATORS.size());
+            final long scale = "price".equals(metric) ? 100 : 1;
+            watches = group.toArray(new ItemWatch[0]);
+            if (watches.length > 1) {
+                Arrays.sort(watches, Comparator.comparingLong(ItemWatch::getThreshold));
+            }
+            thresholds = new long[watches.length];
+            for (int i = 0; i < watches.length; i++) {
+                thresholds[i] = watches[i].getThreshold() * scale;
+            }
+            updateStateBoundary();
+        }
+
+        /**
+         * @return the first index of the suffix (lt, le) or the end of the prefix (gt, ge) of firing watches
+         */
+        int boundary(long value) {
+            switch (comparator) {
+                case "le":
+                    return lowerBound(value);
+                case "ge":
+                    return upperBound(value);
+                case "gt":
+                    return lowerBound(value);
+                case "lt":
+                default:
+                    return upperBound(value);
+            }
+        }
+
+        void evaluate(long value, Consumer<ItemWatch> changed) {
+            final int boundary = boundary(value);
+            final int from = stateBoundary < 0 ? 0 : Math.min(boundary, stateBoundary);
+            final int to = stateBoundary < 0 ? watches.length : Math.max(boundary, stateBoundary);
+            for (int i = from; i < to; i++) {
+                final ItemWatch watch = watches[i];
+                if (fires(i, boundary)) {
+                    if (!watch.isTriggered()) {
+                        watch.setTriggered(true);
+                        changed.accept(watch);
+                    }
+                } else if (watch.isTriggered() || watch.isMailSent()) {
+                    watch.reset();
+                    changed.accept(watch);
+                }
+            }
+            stateBoundary = boundary;
+        }
+
+        private boolean firesOnPrefix() {
+            return "gt".equals(comparator) || "ge".equals(comparator);
+        }
+
+        private boolean fires(int index, int boundary) {
+            return firesOnPrefix() ? index < boundary : index >= boundary;
+        }
+
+        void updateStateBoundary() {
+            stateBoundary = findStateBoundary();
+        }
+
+        private int findStateBoundary() {
+            int boundary;
+            if (firesOnPrefix()) {
+                boundary = 0;
+                while (boundary < watches.length && watches[boundary].isTriggered()) {
+                    boundary++;
+                }
+            } else {
+                boundary = watches.length;
+                while (boundary > 0 && watches[boundary - 1].isTriggered()) {
+                    boundary--;
+                }
+            }
+            for (int i = 0; i < watches.length; i++) {
+                if (!fires(i, boundary) && (watches[i].isTriggered() || watches[i].isMailSent())) {
+                    return -1;
+                }
+            }
+            return boundary;
+        }
+
+        // first index with a threshold >= value
+        private int lowerBound(long value) {
+            int low = 0;
+            int high = thresholds.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (thresholds[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // first index with a threshold > value
+        private int upperBound(long value) {
+            int low = 0;
+            int high = thresholds.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (thresholds[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
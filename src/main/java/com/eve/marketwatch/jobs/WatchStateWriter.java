@@ -0,0 +1,72 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemWatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Collects the state changes (triggered, mailSent) of the watches of a run and writes them at the end. A watch is
+ * only written if its state differs from the state it has been loaded with, e.g. a watch that is triggered and mailed
+ * in the same run is written once and a watch that is triggered and reset again is not written at all.
+ */
+class WatchStateWriter {
+
+    private static final Logger LOG = LogManager.getLogger(WatchStateWriter.class);
+
+    // ItemWatchRepository#updateState in production
+    private final Predicate<ItemWatch> updateState;
+    private final Map<String, Integer> storedStates = new ConcurrentHashMap<>();
+    private final Map<String, ItemWatch> changedWatches = new ConcurrentHashMap<>();
+
+    WatchStateWriter(Predicate<ItemWatch> updateState) {
+        this.updateState = updateState;
+    }
+
+    /**
+     * Remembers the state of the watches as they have been loaded.
+     */
+    void track(Collection<ItemWatch> watches) {
+        for (final ItemWatch watch : watches) {
+            storedStates.put(watch.getId(), state(watch));
+        }
+    }
+
+    void changed(ItemWatch watch) {
+        changedWatches.put(watch.getId(), watch);
+    }
+
+    /**
+     * @return the number of written watches
+     */
+    int flush() {
+        final List<ItemWatch> watches = new ArrayList<>(changedWatches.values());
+        changedWatches.clear();
+        int written = 0;
+        for (final ItemWatch watch : watches) {
+            final int state = state(watch);
+            final Integer storedState = storedStates.get(watch.getId());
+            if (storedState != null && storedState == state) {
+                continue;
+            }
+            if (updateState.test(watch)) {
+                written++;
+            } else {
+                LOG.info("Watch " + watch.getId() + " has been deleted in the meantime.");
+            }
+            storedStates.put(watch.getId(), state);
+        }
+        LOG.info("Wrote the state of " + written + " of " + watches.size() + " changed watches.");
+        return written;
+    }
+
+    private static int state(ItemWatch watch) {
+        return (watch.isTriggered() ? 1 : 0) | (watch.isMailSent() ? 2 : 0);
+    }
+}
@@ -13,6 +13,14 @@ public class ItemSnapshot {
     private int typeId;
     private long amount;
     private boolean isBuy;
+    // null for snapshots that have been written before order counts and prices were tracked
+    private Integer orderCount;
+    // lowest sell or highest buy price in hundredths of an ISK
+    private Long bestPrice;
+
+    public static String createId(int typeId, long locationId, boolean isBuy) {
+        return typeId + "-" + locationId + "-" + (isBuy ? "buy" : "sell");
+    }
 
     @DynamoDBHashKey(
             attributeName = "id"
@@ -57,6 +65,22 @@ public class ItemSnapshot {
         isBuy = buy;
     }
 
+    public Integer getOrderCount() {
+        return orderCount;
+    }
+
+    public void setOrderCount(Integer orderCount) {
+        this.orderCount = orderCount;
+    }
+
+    public Long getBestPrice() {
+        return bestPrice;
+    }
+
+    public void setBestPrice(Long bestPrice) {
+        this.bestPrice = bestPrice;
+    }
+
     @Override
     public String toString() {
         return "ItemSnapshot{" +
@@ -65,6 +89,8 @@ public class ItemSnapshot {
                 ", typeId=" + typeId +
                 ", amount=" + amount +
                 ", isBuy=" + isBuy +
+                ", orderCount=" + orderCount +
+                ", bestPrice=" + bestPrice +
                 '}';
     }
 }
@@ -0,0 +1,111 @@
+package com.eve.marketwatch.model.dao;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The changes of one snapshot (type, location and side) during one UTC day. Every change is appended to amounts as a
+ * pair of the second of the day and the amount after the change, so a lost append only loses that one point.
+ */
+@DynamoDBTable(
+        tableName = "eve_marketwatch_item_snapshot_history"
+)
+public class ItemSnapshotHistory {
+
+    private String id;
+    private int day;
+    private List<Long> amounts;
+    private Long expires;
+
+    static int toDay(Instant time) {
+        return (int) time.atZone(ZoneOffset.UTC).toLocalDate().toEpochDay();
+    }
+
+    static List<Long> encodePoint(Instant time, long amount) {
+        final long secondOfDay = time.getEpochSecond() - LocalDate.ofEpochDay(toDay(time)).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        return Arrays.asList(secondOfDay, amount);
+    }
+
+    /**
+     * @return the amount after every change of the day in chronological order
+     */
+    public List<Point> decode() {
+        final List<Point> decoded = new ArrayList<>();
+        final long dayStart = LocalDate.ofEpochDay(day).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        if (amounts != null) {
+            for (int i = 0; i + 1 < amounts.size(); i += 2) {
+                decoded.add(new Point(Instant.ofEpochSecond(dayStart + amounts.get(i)), amounts.get(i + 1)));
+            }
+        }
+        return decoded;
+    }
+
+    @DynamoDBHashKey(
+            attributeName = "id"
+    )
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @DynamoDBRangeKey(
+            attributeName = "day"
+    )
+    public int getDay() {
+        return day;
+    }
+
+    public void setDay(int day) {
+        this.day = day;
+    }
+
+    public List<Long> getAmounts() {
+        return amounts;
+    }
+
+    public void setAmounts(List<Long> amounts) {
+        this.amounts = amounts;
+    }
+
+    public Long getExpires() {
+        return expires;
+    }
+
+    public void setExpires(Long expires) {
+        this.expires = expires;
+    }
+
+    public static class Point {
+        private final Instant time;
+        private final long amount;
+
+        public Point(Instant time, long amount) {
+            this.time = time;
+            this.amount = amount;
+        }
+
+        public Instant getTime() {
+            return time;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        @Override
+        public String toString() {
+            return time + "=" + amount;
+        }
+    }
+}
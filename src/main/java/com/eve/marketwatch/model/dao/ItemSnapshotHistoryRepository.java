@@ -0,0 +1,95 @@
+package com.eve.marketwatch.model.dao;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class ItemSnapshotHistoryRepository {
+    private static final ItemSnapshotHistoryRepository adapter = new ItemSnapshotHistoryRepository();
+    private static final String TABLE_NAME = "eve_marketwatch_item_snapshot_history";
+    // days are removed by the table's time to live on the expires attribute
+    private static final Duration RETENTION = Duration.ofDays(90);
+    private final AmazonDynamoDB client = ClientProvider.get();
+
+    private ItemSnapshotHistoryRepository() {
+    }
+
+    public static ItemSnapshotHistoryRepository getInstance() {
+        return adapter;
+    }
+
+    /**
+     * Appends a change of the snapshot to the history of the day, creating the day if it does not exist yet.
+     */
+    public void append(String snapshotId, Instant time, long amount) {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put("id", new AttributeValue().withS(snapshotId));
+        key.put("day", new AttributeValue().withN(String.valueOf(ItemSnapshotHistory.toDay(time))));
+
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":empty", new AttributeValue().withL(new ArrayList<>()));
+        values.put(":point", new AttributeValue().withL(ItemSnapshotHistory.encodePoint(time, amount).stream()
+                .map(value -> new AttributeValue().withN(String.valueOf(value)))
+                .collect(Collectors.toList())));
+        values.put(":expires", new AttributeValue().withN(String.valueOf(time.plus(RETENTION).getEpochSecond())));
+
+        client.updateItem(new UpdateItemRequest()
+                .withTableName(TABLE_NAME)
+                .withKey(key)
+                .withUpdateExpression("SET amounts = list_append(if_not_exists(amounts, :empty), :point), expires = :expires")
+                .withExpressionAttributeValues(values));
+    }
+
+    public List<ItemSnapshotHistory> findDays(String snapshotId, Instant from, Instant to) {
+        DynamoDBMapper mapper = new DynamoDBMapper(this.client);
+        Map<String, AttributeValue> vals = new HashMap<>();
+        vals.put(":id", new AttributeValue().withS(snapshotId));
+        vals.put(":from", new AttributeValue().withN(String.valueOf(ItemSnapshotHistory.toDay(from))));
+        vals.put(":to", new AttributeValue().withN(String.valueOf(ItemSnapshotHistory.toDay(to))));
+        DynamoDBQueryExpression<ItemSnapshotHistory> query = new DynamoDBQueryExpression<ItemSnapshotHistory>()
+                .withKeyConditionExpression("id = :id and #day between :from and :to")
+                .withExpressionAttributeNames(Collections.singletonMap("#day", "day"))
+                .withExpressionAttributeValues(vals);
+        return mapper.query(ItemSnapshotHistory.class, query);
+    }
+
+    /**
+     * @return at most maxPoints amounts between from and to, the last amount of every interval
+     */
+    public List<ItemSnapshotHistory.Point> findHistory(String snapshotId, Instant from, Instant to, int maxPoints) {
+        final List<ItemSnapshotHistory.Point> points = findDays(snapshotId, from, to).stream()
+                .flatMap(day -> day.decode().stream())
+                .collect(Collectors.toList());
+        return downsample(points, from, to, maxPoints);
+    }
+
+    static List<ItemSnapshotHistory.Point> downsample(List<ItemSnapshotHistory.Point> points, Instant from, Instant to, int maxPoints) {
+        final long interval = Math.max(1, (to.toEpochMilli() - from.toEpochMilli()) / Math.max(1, maxPoints));
+        final List<ItemSnapshotHistory.Point> downsampled = new ArrayList<>();
+        long currentBucket = Long.MIN_VALUE;
+        for (final ItemSnapshotHistory.Point point : points) {
+            if (point.getTime().isBefore(from) || point.getTime().isAfter(to)) {
+                continue;
+            }
+            final long bucket = (point.getTime().toEpochMilli() - from.toEpochMilli()) / interval;
+            if (bucket == currentBucket) {
+                downsampled.set(downsampled.size() - 1, point);
+            } else {
+                downsampled.add(point);
+                currentBucket = bucket;
+            }
+        }
+        return downsampled;
+    }
+}
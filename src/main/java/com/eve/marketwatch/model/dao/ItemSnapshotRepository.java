@@ -4,7 +4,10 @@ import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class ItemSnapshotRepository {
     private static final ItemSnapshotRepository adapter = new ItemSnapshotRepository();
@@ -28,4 +31,20 @@ public class ItemSnapshotRepository {
         DynamoDBScanExpression scanRequest = new DynamoDBScanExpression();
         return mapper.scan(ItemSnapshot.class, scanRequest);
     }
+
+    public List<ItemSnapshot> findByIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        DynamoDBMapper mapper = new DynamoDBMapper(this.client);
+        final List<Object> keys = ids.stream().map(id -> {
+            final ItemSnapshot key = new ItemSnapshot();
+            key.setId(id);
+            return key;
+        }).collect(Collectors.toList());
+        return mapper.batchLoad(keys).values().stream()
+                .flatMap(List::stream)
+                .map(ItemSnapshot.class::cast)
+                .collect(Collectors.toList());
+    }
 }
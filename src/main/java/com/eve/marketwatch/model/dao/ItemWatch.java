@@ -2,9 +2,13 @@ package com.eve.marketwatch.model.dao;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAutoGeneratedKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 
 @DynamoDBTable(
@@ -12,6 +16,10 @@ import java.util.Date;
 )
 public class ItemWatch {
 
+    public static final String PENDING_NOTIFICATION_INDEX = "pendingNotification-index";
+    public static final String LOCATION_INDEX = "locationId-index";
+    public static final List<String> METRICS = Collections.unmodifiableList(Arrays.asList("volume", "orders", "price"));
+
     private String id;
     private int characterId;
     private long locationId;
@@ -24,6 +32,8 @@ public class ItemWatch {
     private boolean isDisabled;
     private Date created;
     private String comparator;
+    // volume (default), orders or price, the threshold of a price watch is in ISK
+    private String metric;
     // status process
     // triggered=false/mailSent=false -> triggered=true/mailSent=false -> triggered=true/mailSent=true -> triggered=mailSent=false
     //         base status                          WatchChecker                  MailSender                   WatchChecker
@@ -56,6 +66,10 @@ public class ItemWatch {
         this.typeName = typeName;
     }
 
+    @DynamoDBIndexHashKey(
+            globalSecondaryIndexName = LOCATION_INDEX,
+            attributeName = "locationId"
+    )
     public long getLocationId() {
         return locationId;
     }
@@ -120,6 +134,37 @@ public class ItemWatch {
         this.comparator = comparator;
     }
 
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    /**
+     * @return true for one of the {@link #METRICS} or null, which stands for volume
+     */
+    public static boolean isSupportedMetric(String metric) {
+        return metric == null || METRICS.contains(metric);
+    }
+
+    /**
+     * The character id while the watch is triggered but not mailed yet, otherwise the attribute is not stored at all.
+     * Only pending watches are therefore part of the {@link #PENDING_NOTIFICATION_INDEX}.
+     */
+    @DynamoDBIndexHashKey(
+            globalSecondaryIndexName = PENDING_NOTIFICATION_INDEX,
+            attributeName = "pendingNotification"
+    )
+    public Integer getPendingNotification() {
+        return triggered && !mailSent ? characterId : null;
+    }
+
+    public void setPendingNotification(Integer pendingNotification) {
+        // derived from triggered and mailSent
+    }
+
     public void reset() {
         triggered = false;
         mailSent = false;
@@ -133,6 +178,7 @@ public class ItemWatch {
                 ", typeId=" + typeId +
                 ", typeName='" + typeName + '\'' +
                 ", threshold=" + threshold +
+                ", metric=" + metric +
                 ", triggered=" + triggered +
                 ", mailSent=" + mailSent +
                 '}';
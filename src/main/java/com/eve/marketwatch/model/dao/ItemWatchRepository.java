@@ -2,15 +2,22 @@ package com.eve.marketwatch.model.dao;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class ItemWatchRepository {
     private static final ItemWatchRepository adapter = new ItemWatchRepository();
+    private static final String TABLE_NAME = "eve_marketwatch_item_watch";
     private final AmazonDynamoDB client = ClientProvider.get();
 
     private ItemWatchRepository() {
@@ -26,12 +33,75 @@ public class ItemWatchRepository {
         return itemWatch;
     }
 
+    /**
+     * Writes only the triggered and mailSent flags of the watch and the pendingNotification attribute derived from
+     * them. Other attributes are left alone, so this neither overwrites a concurrent edit of the watch nor brings back
+     * a watch that has been deleted in the meantime.
+     *
+     * @return false if the watch does not exist anymore
+     */
+    public boolean updateState(ItemWatch itemWatch) {
+        final Map<String, AttributeValue> values = new HashMap<>();
+        // the mapper stores booleans as numbers
+        values.put(":triggered", new AttributeValue().withN(itemWatch.isTriggered() ? "1" : "0"));
+        values.put(":mailSent", new AttributeValue().withN(itemWatch.isMailSent() ? "1" : "0"));
+        String updateExpression = "SET triggered = :triggered, mailSent = :mailSent";
+        if (itemWatch.getPendingNotification() != null) {
+            values.put(":pending", new AttributeValue().withN(String.valueOf(itemWatch.getPendingNotification())));
+            updateExpression += ", pendingNotification = :pending";
+        } else {
+            updateExpression += " REMOVE pendingNotification";
+        }
+        try {
+            client.updateItem(new UpdateItemRequest()
+                    .withTableName(TABLE_NAME)
+                    .withKey(Collections.singletonMap("id", new AttributeValue().withS(itemWatch.getId())))
+                    .withUpdateExpression(updateExpression)
+                    .withConditionExpression("attribute_exists(id)")
+                    .withExpressionAttributeValues(values));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
     public List<ItemWatch> findAll() {
         DynamoDBMapper mapper = new DynamoDBMapper(this.client);
         DynamoDBScanExpression scanRequest = new DynamoDBScanExpression();
         return mapper.scan(ItemWatch.class, scanRequest);
     }
 
+    /**
+     * @return the watches that are triggered but have not been mailed yet, read from the sparse index that holds
+     * nothing but these
+     */
+    public List<ItemWatch> findPendingNotifications() {
+        DynamoDBMapper mapper = new DynamoDBMapper(this.client);
+        DynamoDBScanExpression scanRequest = new DynamoDBScanExpression()
+                .withIndexName(ItemWatch.PENDING_NOTIFICATION_INDEX)
+                .withConsistentRead(false);
+        return mapper.scan(ItemWatch.class, scanRequest);
+    }
+
+    /**
+     * @return the watches of the given locations, read with one query per location from the location index
+     */
+    public List<ItemWatch> findByLocationIds(Collection<Long> locationIds) {
+        DynamoDBMapper mapper = new DynamoDBMapper(this.client);
+        final List<ItemWatch> watches = new ArrayList<>();
+        for (final Long locationId : locationIds) {
+            Map<String, AttributeValue> vals = new HashMap<>();
+            vals.put(":val1", new AttributeValue().withN(String.valueOf(locationId)));
+            DynamoDBQueryExpression<ItemWatch> queryRequest = new DynamoDBQueryExpression<ItemWatch>()
+                    .withIndexName(ItemWatch.LOCATION_INDEX)
+                    .withConsistentRead(false)
+                    .withKeyConditionExpression("locationId = :val1")
+                    .withExpressionAttributeValues(vals);
+            watches.addAll(mapper.query(ItemWatch.class, queryRequest));
+        }
+        return watches;
+    }
+
     public List<ItemWatch> findByCharacterId(int characterId) {
         DynamoDBMapper mapper = new DynamoDBMapper(this.client);
         Map<String, AttributeValue> vals = new HashMap();
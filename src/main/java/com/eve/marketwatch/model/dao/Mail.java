@@ -2,6 +2,8 @@ package com.eve.marketwatch.model.dao;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAutoGeneratedKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedEnum;
 
@@ -12,6 +14,12 @@ import java.util.Date;
 )
 public class Mail {
 
+    public static final String OUTBOX_INDEX = "outbox-index";
+    public static final int PRIORITY_NOTIFICATION = 10;
+    public static final int PRIORITY_BULK = 2;
+    public static final int PRIORITY_DEACTIVATION = 1;
+    private static final int MAX_PRIORITY = 99999;
+
     private String id;
     private int recipient;
     private String subject;
@@ -19,6 +27,7 @@ public class Mail {
     private MailStatus mailStatus;
     private Date created;
     private Integer priority;
+    private Integer attempts;
 
     @DynamoDBAutoGeneratedKey
     @DynamoDBHashKey(
@@ -80,4 +89,58 @@ public class Mail {
     public void setPriority(Integer priority) {
         this.priority = priority;
     }
+
+    /**
+     * @return how often sending the mail has been rejected because of the sender token, null if it never was
+     */
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * The status while the mail still has to be sent, otherwise the attribute is not stored at all. Sent and failed
+     * mails are therefore not part of the {@link #OUTBOX_INDEX}.
+     */
+    @DynamoDBIndexHashKey(
+            globalSecondaryIndexName = OUTBOX_INDEX,
+            attributeName = "outboxStatus"
+    )
+    public String getOutboxStatus() {
+        return mailStatus == MailStatus.NEW ? mailStatus.name() : null;
+    }
+
+    public void setOutboxStatus(String outboxStatus) {
+        // derived from mailStatus
+    }
+
+    /**
+     * Orders the outbox by descending priority and, within a priority, by creation. The priority is inverted and both
+     * parts are zero padded so that the string order matches.
+     */
+    @DynamoDBIndexRangeKey(
+            globalSecondaryIndexName = OUTBOX_INDEX,
+            attributeName = "outboxKey"
+    )
+    public String getOutboxKey() {
+        if (mailStatus != MailStatus.NEW) {
+            return null;
+        }
+        return outboxPrefix(priority == null ? 0 : priority)
+                + String.format("%013d", created == null ? 0 : created.getTime());
+    }
+
+    /**
+     * @return the start of the outbox keys of all mails of the priority
+     */
+    public static String outboxPrefix(int priority) {
+        return String.format("%05d-", MAX_PRIORITY - Math.max(0, Math.min(MAX_PRIORITY, priority)));
+    }
+
+    public void setOutboxKey(String outboxKey) {
+        // derived from mailStatus, priority and created
+    }
 }
@@ -2,10 +2,14 @@ package com.eve.marketwatch.model.dao;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +30,9 @@ public class MailRepository {
         return mail;
     }
 
+    /**
+     * A full table scan, use {@link #findOutbox} to read the mails that still have to be sent.
+     */
     public List<Mail> findByStatus(final MailStatus status) {
         DynamoDBMapper mapper = new DynamoDBMapper(client);
         Map<String, AttributeValue> vals = new HashMap<>();
@@ -36,4 +43,52 @@ public class MailRepository {
         return mapper.scan(Mail.class, scanRequest);
     }
 
+    /**
+     * @param excludedRecipients recipients whose mails are skipped, e.g. because they have had enough mails this run
+     * @return up to limit mails that still have to be sent, the most important and oldest first
+     */
+    public List<Mail> findOutbox(final int limit, final Collection<Integer> excludedRecipients) {
+        Map<String, AttributeValue> vals = new HashMap<>();
+        vals.put(":val1", new AttributeValue().withS(MailStatus.NEW.name()));
+        return findOutbox("outboxStatus = :val1", vals, limit, excludedRecipients);
+    }
+
+    /**
+     * @param excludedRecipients recipients whose mails are skipped, e.g. because they have had enough mails this run
+     * @return up to limit mails of the priority that still have to be sent, the oldest first
+     */
+    public List<Mail> findOutbox(final int priority, final int limit, final Collection<Integer> excludedRecipients) {
+        Map<String, AttributeValue> vals = new HashMap<>();
+        vals.put(":val1", new AttributeValue().withS(MailStatus.NEW.name()));
+        vals.put(":val2", new AttributeValue().withS(Mail.outboxPrefix(priority)));
+        return findOutbox("outboxStatus = :val1 and begins_with(outboxKey, :val2)", vals, limit, excludedRecipients);
+    }
+
+    private List<Mail> findOutbox(final String keyCondition, final Map<String, AttributeValue> vals, final int limit,
+                                  final Collection<Integer> excludedRecipients) {
+        DynamoDBMapper mapper = new DynamoDBMapper(client);
+        DynamoDBQueryExpression<Mail> queryRequest = new DynamoDBQueryExpression<Mail>()
+                .withIndexName(Mail.OUTBOX_INDEX)
+                .withConsistentRead(false)
+                .withKeyConditionExpression(keyCondition)
+                .withScanIndexForward(true)
+                .withLimit(limit);
+        if (!excludedRecipients.isEmpty()) {
+            final List<String> names = new ArrayList<>();
+            for (final Integer recipient : excludedRecipients) {
+                final String name = ":recipient" + names.size();
+                vals.put(name, new AttributeValue().withN(String.valueOf(recipient)));
+                names.add(name);
+            }
+            queryRequest.withFilterExpression("NOT (recipient IN (" + String.join(", ", names) + "))");
+        }
+        queryRequest.withExpressionAttributeValues(vals);
+        // the limit applies before the filter, so the excluded mails are paged past until there are enough others
+        final List<Mail> mails = new ArrayList<>();
+        final Iterator<Mail> iterator = mapper.query(Mail.class, queryRequest).iterator();
+        while (mails.size() < limit && iterator.hasNext()) {
+            mails.add(iterator.next());
+        }
+        return mails;
+    }
 }
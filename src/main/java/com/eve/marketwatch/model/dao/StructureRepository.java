@@ -6,10 +6,13 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedScanList;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class StructureRepository {
     private static final StructureRepository adapter = new StructureRepository();
@@ -43,6 +46,22 @@ public class StructureRepository {
         return Optional.ofNullable(scan.isEmpty() ? null : (Structure)scan.get(0));
     }
 
+    public List<Structure> findByIds(Collection<Long> structureIds) {
+        if (structureIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        DynamoDBMapper mapper = new DynamoDBMapper(this.client);
+        final List<Object> keys = structureIds.stream().map(structureId -> {
+            final Structure key = new Structure();
+            key.setStructureId(structureId);
+            return key;
+        }).collect(Collectors.toList());
+        return mapper.batchLoad(keys).values().stream()
+                .flatMap(List::stream)
+                .map(Structure.class::cast)
+                .collect(Collectors.toList());
+    }
+
     public Optional<Structure> find(final String structureName) {
         DynamoDBMapper mapper = new DynamoDBMapper(this.client);
         Map<String, AttributeValue> vals = new HashMap();
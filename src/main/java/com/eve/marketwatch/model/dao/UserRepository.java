@@ -6,10 +6,13 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedScanList;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class UserRepository {
     private static final UserRepository adapter = new UserRepository();
@@ -43,6 +46,22 @@ public class UserRepository {
         return Optional.ofNullable(scan.isEmpty() ? null : (User)scan.get(0));
     }
 
+    public List<User> findByIds(Collection<Integer> characterIds) {
+        if (characterIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        DynamoDBMapper mapper = new DynamoDBMapper(this.client);
+        final List<Object> keys = characterIds.stream().map(characterId -> {
+            final User key = new User();
+            key.setCharacterId(characterId);
+            return key;
+        }).collect(Collectors.toList());
+        return mapper.batchLoad(keys).values().stream()
+                .flatMap(List::stream)
+                .map(User.class::cast)
+                .collect(Collectors.toList());
+    }
+
     public void delete(User user) {
         DynamoDBMapper mapper = new DynamoDBMapper(this.client);
         mapper.delete(user);
@@ -16,6 +16,12 @@ public class MarketOrderResponse {
     @SerializedName("volume_remain")
     private int volumeRemain;
 
+    @SerializedName("price")
+    private double price;
+
+    @SerializedName("order_id")
+    private long orderId;
+
     public boolean isBuyOrder() {
         return isBuyOrder;
     }
@@ -48,6 +54,22 @@ public class MarketOrderResponse {
         this.volumeRemain = volumeRemain;
     }
 
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(long orderId) {
+        this.orderId = orderId;
+    }
+
     @Override
     public String toString() {
         return "MarketOrderResponse{" +
@@ -55,6 +77,8 @@ public class MarketOrderResponse {
                 ", locationId=" + locationId +
                 ", typeId=" + typeId +
                 ", volumeRemain=" + volumeRemain +
+                ", price=" + price +
+                ", orderId=" + orderId +
                 '}';
     }
 }
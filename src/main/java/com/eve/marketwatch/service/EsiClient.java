@@ -0,0 +1,208 @@
+package com.eve.marketwatch.service;
+
+import com.eve.marketwatch.Constants;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.filter.EncodingFilter;
+import org.glassfish.jersey.message.GZipEncoder;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * The one HTTP client of a container for ESI and the EVE SSO. Connections are pooled and kept alive between warm
+ * invocations, responses are requested gzip encoded and every ESI request goes through the {@link EsiErrorLimiter}.
+ * <p>
+ * Latencies are recorded per ESI endpoint, ids in the path are replaced by {id} so e.g. all region order pages are
+ * counted as one endpoint.
+ */
+public class EsiClient {
+
+    private static final Logger LOG = LogManager.getLogger(EsiClient.class);
+
+    private static final Pattern ID_SEGMENT = Pattern.compile("/\\d+(?=/|$)");
+
+    private static final EsiClient instance = new EsiClient(createWebClient(
+            getIntEnv("ESI_CONNECT_TIMEOUT_MILLIS", 5000),
+            getIntEnv("ESI_READ_TIMEOUT_MILLIS", 30000),
+            getIntEnv("ESI_MAX_CONNECTIONS", EsiErrorLimiter.MAX_CONCURRENCY)));
+
+    private final Client webClient;
+    private final EsiErrorLimiter esiErrorLimiter;
+    private final Map<String, EndpointStats> endpointStats = new ConcurrentHashMap<>();
+
+    EsiClient(Client webClient) {
+        this(webClient, EsiErrorLimiter.getInstance());
+    }
+
+    EsiClient(Client webClient, EsiErrorLimiter esiErrorLimiter) {
+        this.webClient = webClient;
+        this.esiErrorLimiter = esiErrorLimiter;
+    }
+
+    public static EsiClient getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts a request against the ESI, the path is relative to {@link Constants#ESI_BASE_URL}.
+     */
+    public Request path(String path) {
+        return new Request(webClient.target(Constants.ESI_BASE_URL).path(path), path, true);
+    }
+
+    /**
+     * Starts a request against any other service (e.g. the SSO). It shares the connection pool but is not counted
+     * against the ESI error limit, its latencies are recorded per host.
+     */
+    public Request url(String baseUrl, String path) {
+        return new Request(webClient.target(baseUrl).path(path), baseUrl, false);
+    }
+
+    /**
+     * Logs the latencies of all endpoints that have been called since the last call and resets them.
+     */
+    public void logMetrics() {
+        final Map<String, EndpointStats> sorted = new TreeMap<>(endpointStats);
+        endpointStats.keySet().removeAll(sorted.keySet());
+        sorted.forEach((endpoint, stats) -> LOG.info("ESI " + endpoint + ": " + stats));
+    }
+
+    static String endpoint(String method, String path) {
+        return method + " " + ID_SEGMENT.matcher(path).replaceAll("/{id}");
+    }
+
+    private Response execute(String endpoint, boolean esi, Supplier<Response> call) {
+        final EndpointStats stats = endpointStats.computeIfAbsent(endpoint, e -> new EndpointStats());
+        final Supplier<Response> timedCall = () -> {
+            final long start = System.nanoTime();
+            try {
+                final Response response = call.get();
+                stats.record(System.nanoTime() - start, response.getStatus() >= 400);
+                return response;
+            } catch (RuntimeException e) {
+                stats.record(System.nanoTime() - start, true);
+                throw e;
+            }
+        };
+        return esi ? esiErrorLimiter.execute(timedCall) : timedCall.get();
+    }
+
+    private static Client createWebClient(int connectTimeoutMillis, int readTimeoutMillis, int maxConnections) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(60, TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        // nearly all requests go to the same host
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(10000);
+
+        final ClientConfig config = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ClientProperties.CONNECT_TIMEOUT, connectTimeoutMillis)
+                .property(ClientProperties.READ_TIMEOUT, readTimeoutMillis)
+                .property(ClientProperties.USE_ENCODING, "gzip")
+                .register(GZipEncoder.class)
+                .register(EncodingFilter.class);
+        return ClientBuilder.newClient(config);
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        final String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid " + name + "=" + value);
+            return defaultValue;
+        }
+    }
+
+    public class Request {
+        private WebTarget target;
+        private final String path;
+        private final boolean esi;
+        private final Map<String, Object> headers = new LinkedHashMap<>();
+
+        private Request(WebTarget target, String path, boolean esi) {
+            this.target = target;
+            this.path = path;
+            this.esi = esi;
+        }
+
+        public Request queryParam(String name, Object value) {
+            target = target.queryParam(name, value);
+            return this;
+        }
+
+        public Request header(String name, Object value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Request bearer(String accessToken) {
+            return header("Authorization", "Bearer " + accessToken);
+        }
+
+        public Response get() {
+            final Invocation.Builder builder = builder();
+            return execute(endpoint("GET", path), esi, builder::get);
+        }
+
+        public Response post(Entity<?> entity) {
+            final Invocation.Builder builder = builder();
+            return execute(endpoint("POST", path), esi, () -> builder.post(entity));
+        }
+
+        private Invocation.Builder builder() {
+            Invocation.Builder builder = target.request();
+            for (final Map.Entry<String, Object> header : headers.entrySet()) {
+                builder = builder.header(header.getKey(), header.getValue());
+            }
+            return builder;
+        }
+    }
+
+    static class EndpointStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean error) {
+            requests.increment();
+            if (error) {
+                errors.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            final long count = requests.sum();
+            return count + " requests, " + errors.sum() + " errors, avg "
+                    + (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / count)) + "ms, max "
+                    + TimeUnit.NANOSECONDS.toMillis(maxNanos.get()) + "ms";
+        }
+    }
+}
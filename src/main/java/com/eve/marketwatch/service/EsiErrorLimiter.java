@@ -0,0 +1,155 @@
+package com.eve.marketwatch.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Keeps all ESI callers of a container within the ESI error limit. Every response reports the remaining error budget
+ * (X-ESI-Error-Limit-Remain) and the seconds until it resets (X-ESI-Error-Limit-Reset). The fewer errors are left,
+ * the fewer requests may be in flight at the same time; once the budget is nearly exhausted all requests wait for the
+ * reset, as running into the limit gets the whole application temporarily banned.
+ */
+public class EsiErrorLimiter {
+
+    private static final Logger LOG = LogManager.getLogger(EsiErrorLimiter.class);
+
+    static final int MAX_CONCURRENCY = 50;
+    // below this budget the allowed concurrency shrinks proportionally
+    static final int THROTTLE_REMAIN = 50;
+    // at or below this budget no request is sent until the reset
+    static final int PAUSE_REMAIN = 10;
+
+    private static final EsiErrorLimiter instance = new EsiErrorLimiter(System::currentTimeMillis);
+
+    private final LongSupplier clock;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong paused = new AtomicLong();
+
+    private int remaining = Integer.MAX_VALUE;
+    private long resetAt;
+    private int inFlight;
+
+    EsiErrorLimiter(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public static EsiErrorLimiter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sends the request once the error budget allows it and updates the budget from the response headers.
+     */
+    public Response execute(Supplier<Response> request) {
+        acquire();
+        try {
+            final Response response = request.get();
+            update(response);
+            return response;
+        } finally {
+            release();
+        }
+    }
+
+    synchronized void acquire() {
+        requests.incrementAndGet();
+        boolean counted = false;
+        while (true) {
+            final long now = clock.getAsLong();
+            if (resetAt <= now) {
+                // the window has been reset, the budget is unknown until the next response arrives
+                remaining = Integer.MAX_VALUE;
+            }
+            if (remaining <= PAUSE_REMAIN) {
+                if (!counted) {
+                    paused.incrementAndGet();
+                    counted = true;
+                    LOG.warn("ESI error budget is down to " + remaining + ", pausing for " + (resetAt - now) + "ms.");
+                }
+                waitMillis(resetAt - now);
+            } else if (inFlight >= allowedConcurrency()) {
+                if (!counted) {
+                    throttled.incrementAndGet();
+                    counted = true;
+                }
+                waitMillis(resetAt > now ? resetAt - now : 1000);
+            } else {
+                inFlight++;
+                return;
+            }
+        }
+    }
+
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized void update(int remain, int resetSeconds) {
+        final long newResetAt = clock.getAsLong() + resetSeconds * 1000L;
+        if (newResetAt > resetAt + 1000 || remain < remaining) {
+            // a later window or a response that has been counted after the one we saw last
+            remaining = remain;
+        }
+        resetAt = Math.max(resetAt, newResetAt);
+        notifyAll();
+    }
+
+    int allowedConcurrency() {
+        if (remaining >= THROTTLE_REMAIN) {
+            return MAX_CONCURRENCY;
+        }
+        return Math.max(1, MAX_CONCURRENCY * remaining / THROTTLE_REMAIN);
+    }
+
+    private void update(Response response) {
+        final String remain = response.getHeaderString("X-ESI-Error-Limit-Remain");
+        final String reset = response.getHeaderString("X-ESI-Error-Limit-Reset");
+        if (remain == null || reset == null) {
+            return;
+        }
+        try {
+            // a 420 means we are already error limited, whatever the headers say
+            update(response.getStatus() == 420 ? 0 : Integer.parseInt(remain.trim()), Integer.parseInt(reset.trim()));
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid error limit headers " + remain + "/" + reset);
+        }
+    }
+
+    private void waitMillis(long millis) {
+        try {
+            wait(Math.max(1, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the ESI error budget", e);
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getPaused() {
+        return paused.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EsiErrorLimiter{" +
+                "requests=" + requests +
+                ", throttled=" + throttled +
+                ", paused=" + paused +
+                ", remaining=" + (remaining == Integer.MAX_VALUE ? "unknown" : String.valueOf(remaining)) +
+                '}';
+    }
+}
@@ -13,7 +13,6 @@ import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
 import java.nio.charset.StandardCharsets;
@@ -28,9 +27,9 @@ public class EveAuthService {
     private static final Logger LOG = LogManager.getLogger(EveAuthService.class);
     private static final String CLIENT_ID = System.getenv("APP_CLIENT_ID");
     private static final String CLIENT_SECRET = System.getenv("APP_CLIENT_SECRET");
+    private static final String SSO_BASE_URL = "https://login.eveonline.com";
     private final UserRepository userRepository = UserRepository.getInstance();
-
-    private final javax.ws.rs.client.Client webClient = ClientBuilder.newClient();
+    private final EsiClient esiClient = EsiClient.getInstance();
 
     public String getAccessToken(final int characterId) throws BadRequestException, UnknownUserException {
 
@@ -40,9 +39,14 @@ public class EveAuthService {
             throw new UnknownUserException(characterId);
         }
 
-        final User user = optUser.get();
+        return getAccessToken(optUser.get());
+    }
 
-        if (new Date().before(user.getAccessTokenExpiry())) {
+    /**
+     * Returns the cached access token of the user or refreshes and stores it if it has expired.
+     */
+    public String getAccessToken(final User user) throws BadRequestException {
+        if (user.getAccessTokenExpiry() != null && new Date().before(user.getAccessTokenExpiry())) {
             return user.getAccessToken();
         } else {
             final AccessTokenResponse response = getAccessToken(user.getRefreshToken(), CLIENT_ID, CLIENT_SECRET);
@@ -55,7 +59,7 @@ public class EveAuthService {
     }
 
     public AccessTokenResponse getAccessToken(final String refreshToken, final String clientId, final String clientSecret) throws BadRequestException {
-        final Response response = webClient.target("https://login.eveonline.com/oauth/token").request()
+        final Response response = esiClient.url(SSO_BASE_URL, "/oauth/token")
                 .header("Authorization", "Basic " + base64Encode(clientId, clientSecret))
                 .post(Entity.entity("grant_type=refresh_token&refresh_token=" + refreshToken, "application/x-www-form-urlencoded"));
         LOG.info("Access token response code was " + response.getStatus());
@@ -74,9 +78,8 @@ public class EveAuthService {
     }
 
     public CharacterDetailsResponse getCharacterDetails(final String accessToken) {
-        final Response response = webClient.target("https://login.eveonline.com/oauth/verify")
-                .request()
-                .header("Authorization", "Bearer " + accessToken)
+        final Response response = esiClient.url(SSO_BASE_URL, "/oauth/verify")
+                .bearer(accessToken)
                 .get();
         LOG.info("Verify response code was " + response.getStatus());
         final String json = response.readEntity(String.class);
@@ -85,8 +88,7 @@ public class EveAuthService {
     }
 
     public AuthVerificationResponse verifyAuthentication(final String code) throws EsiException {
-        final Response response = webClient.target("https://login.eveonline.com/oauth/token")
-                .request()
+        final Response response = esiClient.url(SSO_BASE_URL, "/oauth/token")
                 .header("Authorization", "Basic " + base64Encode(CLIENT_ID, CLIENT_SECRET))
                 .post(Entity.entity("grant_type=authorization_code&code=" + code, "application/x-www-form-urlencoded"));
         LOG.info("Auth response code was " + response.getStatus());
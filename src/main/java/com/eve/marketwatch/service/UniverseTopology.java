@@ -0,0 +1,117 @@
+package com.eve.marketwatch.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.OptionalInt;
+
+/**
+ * Static station -> system -> constellation -> region mapping of New Eden, read from the binary table that is bundled
+ * with the jar (see {@link UniverseTopologyBuilder}). The table is loaded on first use; ids that are not contained in
+ * it have to be resolved via ESI.
+ */
+public class UniverseTopology {
+
+    private static final Logger LOG = LogManager.getLogger(UniverseTopology.class);
+
+    static final String RESOURCE = "/universe/topology.bin";
+    static final int MAGIC = 0x45564555; // "EVEU"
+    static final int VERSION = 1;
+
+    // sorted by station id
+    private final int[] stationIds;
+    private final int[] stationSystemIds;
+    // sorted by system id
+    private final int[] systemIds;
+    private final int[] systemConstellationIds;
+    private final int[] systemRegionIds;
+
+    private static class Holder {
+        private static final UniverseTopology INSTANCE = load();
+    }
+
+    UniverseTopology(int[] stationIds, int[] stationSystemIds, int[] systemIds, int[] systemConstellationIds, int[] systemRegionIds) {
+        this.stationIds = stationIds;
+        this.stationSystemIds = stationSystemIds;
+        this.systemIds = systemIds;
+        this.systemConstellationIds = systemConstellationIds;
+        this.systemRegionIds = systemRegionIds;
+    }
+
+    public static UniverseTopology getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public OptionalInt findSystemId(long stationId) {
+        if (stationId < Integer.MIN_VALUE || stationId > Integer.MAX_VALUE) {
+            // player owned structures are never part of the static data
+            return OptionalInt.empty();
+        }
+        final int index = Arrays.binarySearch(stationIds, (int) stationId);
+        return index < 0 ? OptionalInt.empty() : OptionalInt.of(stationSystemIds[index]);
+    }
+
+    public OptionalInt findConstellationId(int systemId) {
+        final int index = Arrays.binarySearch(systemIds, systemId);
+        return index < 0 ? OptionalInt.empty() : OptionalInt.of(systemConstellationIds[index]);
+    }
+
+    public OptionalInt findRegionIdOfSystem(int systemId) {
+        final int index = Arrays.binarySearch(systemIds, systemId);
+        return index < 0 ? OptionalInt.empty() : OptionalInt.of(systemRegionIds[index]);
+    }
+
+    public OptionalInt findRegionIdOfStation(long stationId) {
+        final OptionalInt systemId = findSystemId(stationId);
+        return systemId.isPresent() ? findRegionIdOfSystem(systemId.getAsInt()) : OptionalInt.empty();
+    }
+
+    private static UniverseTopology load() {
+        try (InputStream resource = UniverseTopology.class.getResourceAsStream(RESOURCE)) {
+            if (resource == null) {
+                LOG.warn("No universe topology bundled, all stations will be resolved via ESI.");
+                return empty();
+            }
+            final UniverseTopology topology = read(resource);
+            LOG.info("Loaded universe topology with " + topology.stationIds.length + " stations and "
+                    + topology.systemIds.length + " systems.");
+            return topology;
+        } catch (IOException e) {
+            LOG.error("Failed to read universe topology, all stations will be resolved via ESI.", e);
+            return empty();
+        }
+    }
+
+    static UniverseTopology read(InputStream inputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported universe topology format");
+        }
+        final int stationCount = in.readInt();
+        final int[] stationIds = new int[stationCount];
+        final int[] stationSystemIds = new int[stationCount];
+        for (int i = 0; i < stationCount; i++) {
+            stationIds[i] = in.readInt();
+            stationSystemIds[i] = in.readInt();
+        }
+        final int systemCount = in.readInt();
+        final int[] systemIds = new int[systemCount];
+        final int[] systemConstellationIds = new int[systemCount];
+        final int[] systemRegionIds = new int[systemCount];
+        for (int i = 0; i < systemCount; i++) {
+            systemIds[i] = in.readInt();
+            systemConstellationIds[i] = in.readInt();
+            systemRegionIds[i] = in.readInt();
+        }
+        return new UniverseTopology(stationIds, stationSystemIds, systemIds, systemConstellationIds, systemRegionIds);
+    }
+
+    private static UniverseTopology empty() {
+        return new UniverseTopology(new int[0], new int[0], new int[0], new int[0], new int[0]);
+    }
+}
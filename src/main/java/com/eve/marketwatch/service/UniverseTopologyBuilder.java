@@ -0,0 +1,129 @@
+package com.eve.marketwatch.service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Builds the bundled {@link UniverseTopology} table from the staStations.csv and mapSolarSystems.csv exports of the
+ * static data export. The sources may be files or URLs and default to the latest export on fuzzwork.co.uk. The
+ * {@code topology} build profile runs it while packaging:
+ * <pre>
+ * java -cp target/classes com.eve.marketwatch.service.UniverseTopologyBuilder [staStations.csv mapSolarSystems.csv] \
+ *     target/classes/universe/topology.bin
+ * </pre>
+ */
+public class UniverseTopologyBuilder {
+
+    static final String STATIONS_URL = "https://www.fuzzwork.co.uk/dump/latest/csv/staStations.csv";
+    static final String SYSTEMS_URL = "https://www.fuzzwork.co.uk/dump/latest/csv/mapSolarSystems.csv";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 3) {
+            System.err.println("Usage: UniverseTopologyBuilder [<staStations.csv> <mapSolarSystems.csv>] <output>");
+            System.exit(1);
+        }
+        final String stationsSource = args.length == 3 ? args[0] : STATIONS_URL;
+        final String systemsSource = args.length == 3 ? args[1] : SYSTEMS_URL;
+
+        final SortedMap<Integer, Integer> stations;
+        try (BufferedReader reader = open(stationsSource)) {
+            stations = readStations(reader);
+        }
+        final SortedMap<Integer, int[]> systems;
+        try (BufferedReader reader = open(systemsSource)) {
+            systems = readSystems(reader);
+        }
+
+        final Path output = Paths.get(args[args.length - 1]);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(output)) {
+            write(stations, systems, out);
+        }
+        System.out.println("Wrote " + stations.size() + " stations and " + systems.size() + " systems to " + output);
+    }
+
+    private static BufferedReader open(String source) throws IOException {
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            return new BufferedReader(new InputStreamReader(new URL(source).openStream(), StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the system id per station id
+     */
+    static SortedMap<Integer, Integer> readStations(BufferedReader reader) throws IOException {
+        final SortedMap<Integer, Integer> stations = new TreeMap<>();
+        for (final Map<String, String> row : readCsv(reader)) {
+            stations.put(Integer.parseInt(row.get("stationID")), Integer.parseInt(row.get("solarSystemID")));
+        }
+        return stations;
+    }
+
+    /**
+     * @return the constellation and region id per system id
+     */
+    static SortedMap<Integer, int[]> readSystems(BufferedReader reader) throws IOException {
+        final SortedMap<Integer, int[]> systems = new TreeMap<>();
+        for (final Map<String, String> row : readCsv(reader)) {
+            systems.put(Integer.parseInt(row.get("solarSystemID")), new int[]{
+                    Integer.parseInt(row.get("constellationID")), Integer.parseInt(row.get("regionID"))});
+        }
+        return systems;
+    }
+
+    static void write(SortedMap<Integer, Integer> stations, SortedMap<Integer, int[]> systems, OutputStream outputStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(UniverseTopology.MAGIC);
+        out.writeInt(UniverseTopology.VERSION);
+        out.writeInt(stations.size());
+        for (final Map.Entry<Integer, Integer> station : stations.entrySet()) {
+            out.writeInt(station.getKey());
+            out.writeInt(station.getValue());
+        }
+        out.writeInt(systems.size());
+        for (final Map.Entry<Integer, int[]> system : systems.entrySet()) {
+            out.writeInt(system.getKey());
+            out.writeInt(system.getValue()[0]);
+            out.writeInt(system.getValue()[1]);
+        }
+        out.flush();
+    }
+
+    // the id columns we need all come before the first (possibly quoted) name column, so a plain split is enough
+    private static List<Map<String, String>> readCsv(BufferedReader reader) throws IOException {
+        final List<String> header = Arrays.asList(reader.readLine().split(","));
+        final List<Map<String, String>> rows = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            final String[] values = line.split(",", -1);
+            final Map<String, String> row = new HashMap<>();
+            for (int i = 0; i < header.size() && i < values.length; i++) {
+                row.put(header.get(i), values[i]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
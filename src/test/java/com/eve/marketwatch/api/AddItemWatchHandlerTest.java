@@ -0,0 +1,23 @@
+package com.eve.marketwatch.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AddItemWatchHandlerTest {
+
+    private final AddItemWatchHandler sut = new AddItemWatchHandler(null, null, null);
+
+    @Test
+    void rejectsUnknownMetrics() {
+        final Map<String, Object> input = new HashMap<>();
+        input.put("body", "{\"typeName\":\"Tritanium\",\"locationId\":60003760,\"threshold\":5,\"metric\":\"prices\"}");
+
+        final ApiGatewayResponse response = sut.handleRequest(input, null);
+
+        assertEquals(400, response.getStatusCode());
+    }
+}
@@ -0,0 +1,45 @@
+package com.eve.marketwatch.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailuresAndClosesOnSuccess() throws IOException {
+        final CircuitBreaker sut = new CircuitBreaker(Files.createTempDirectory("breaker").resolve("breaker.properties"));
+        final long now = 1_000_000;
+
+        sut.recordFailure("region 1", now);
+        assertTrue(sut.allows("region 1", now));
+
+        sut.recordFailure("region 1", now);
+        assertFalse(sut.allows("region 1", now + 1));
+        assertTrue(sut.allows("region 2", now + 1));
+        assertTrue(sut.allows("region 1", now + CircuitBreaker.BASE_OPEN_MILLIS));
+
+        // the trial run fails again, so the breaker stays open twice as long
+        sut.recordFailure("region 1", now + CircuitBreaker.BASE_OPEN_MILLIS);
+        assertFalse(sut.allows("region 1", now + 2 * CircuitBreaker.BASE_OPEN_MILLIS));
+
+        sut.recordSuccess("region 1");
+        assertTrue(sut.allows("region 1", now + 2 * CircuitBreaker.BASE_OPEN_MILLIS));
+    }
+
+    @Test
+    void survivesRestart() throws IOException {
+        final Path file = Files.createTempDirectory("breaker").resolve("breaker.properties");
+        final CircuitBreaker breaker = new CircuitBreaker(file);
+        breaker.recordFailure("structure 1", 1000);
+        breaker.recordFailure("structure 1", 1000);
+        breaker.persist();
+
+        assertFalse(new CircuitBreaker(file).allows("structure 1", 2000));
+    }
+}
@@ -0,0 +1,72 @@
+package com.eve.marketwatch.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FetchScheduleTest {
+
+    private static final long EXPIRES = 10_000_000;
+    private static final long PERIOD = 300_000;
+
+    @Test
+    void fetchesUnknownOrChangedSources() throws IOException {
+        final FetchSchedule sut = new FetchSchedule(Files.createTempDirectory("schedule").resolve("schedule.properties"));
+        assertEquals(0, sut.plan("region 1", 1, EXPIRES - PERIOD));
+
+        sut.record("region 1", 1, page(EXPIRES, EXPIRES - PERIOD));
+        assertEquals(0, sut.plan("region 1", 2, EXPIRES - PERIOD));
+
+        sut.record("region 2", 1, page(0, 0));
+        assertEquals(0, sut.plan("region 2", 1, EXPIRES - PERIOD));
+    }
+
+    @Test
+    void skipsWhileCachedAndWaitsForAnImminentRefresh() throws IOException {
+        final FetchSchedule sut = new FetchSchedule(Files.createTempDirectory("schedule").resolve("schedule.properties"));
+        sut.record("region 1", 1, page(EXPIRES, EXPIRES - PERIOD));
+
+        assertEquals(-1, sut.plan("region 1", 1, EXPIRES - FetchSchedule.ALIGN_WINDOW_MILLIS - 1));
+        assertEquals(FetchSchedule.ALIGN_WINDOW_MILLIS + FetchSchedule.ALIGN_MARGIN_MILLIS,
+                sut.plan("region 1", 1, EXPIRES - FetchSchedule.ALIGN_WINDOW_MILLIS));
+        assertEquals(1_000 + FetchSchedule.ALIGN_MARGIN_MILLIS, sut.plan("region 1", 1, EXPIRES - 1_000));
+    }
+
+    @Test
+    void alignsExpiredSourcesWithTheirNextRefresh() throws IOException {
+        final FetchSchedule sut = new FetchSchedule(Files.createTempDirectory("schedule").resolve("schedule.properties"));
+        sut.record("region 1", 1, page(EXPIRES, EXPIRES - PERIOD));
+
+        // the data has expired and the next refresh is far away
+        assertEquals(0, sut.plan("region 1", 1, EXPIRES));
+        assertEquals(0, sut.plan("region 1", 1, EXPIRES + 10_000));
+        // two periods later the refresh after next is close
+        assertEquals(10_000 + FetchSchedule.ALIGN_MARGIN_MILLIS,
+                sut.plan("region 1", 1, EXPIRES + 2 * PERIOD - 10_000));
+
+        // without a known period there is nothing to align with
+        sut.record("region 2", 1, page(EXPIRES, 0));
+        assertEquals(0, sut.plan("region 2", 1, EXPIRES + 2 * PERIOD - 10_000));
+    }
+
+    @Test
+    void survivesRestart() throws IOException {
+        final Path file = Files.createTempDirectory("schedule").resolve("schedule.properties");
+        final FetchSchedule schedule = new FetchSchedule(file);
+        schedule.record("structure 1", 7, page(EXPIRES, EXPIRES - PERIOD));
+        schedule.persist();
+
+        final FetchSchedule sut = new FetchSchedule(file);
+        assertEquals(-1, sut.plan("structure 1", 7, EXPIRES - PERIOD));
+        assertEquals(3, sut.getPageCount("structure 1"));
+        assertEquals(0, sut.plan("structure 1", 8, EXPIRES - PERIOD));
+    }
+
+    private static MarketOrderPage page(long expires, long lastModified) {
+        return new MarketOrderPage(null, 3, expires, lastModified);
+    }
+}
@@ -0,0 +1,72 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.Mail;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MailCoalescerTest {
+
+    private final MailCoalescer sut = new MailCoalescer();
+
+    @Test
+    void mergesTheMailsOfARecipient() {
+        final Mail notification = mail("1", 10, 42, "Market watch notification", "Tritanium");
+        final Mail other = mail("2", 10, 7, "Market watch notification", "Pyerite");
+        final Mail bulk = mail("3", 2, 42, "News", "Hello");
+
+        final List<MailCoalescer.CoalescedMail> result = sut.coalesce(Arrays.asList(notification, other, bulk));
+
+        assertEquals(2, result.size());
+        final MailCoalescer.CoalescedMail merged = result.get(0);
+        assertEquals(42, merged.getRecipient());
+        assertEquals(Arrays.asList(notification, bulk), merged.getParts());
+        assertEquals(10, merged.getPriority());
+        assertEquals("Eve Market Watch - 2 messages", merged.getSubject());
+        assertEquals("<b>Market watch notification</b>\nTritanium\n\n<b>News</b>\nHello", merged.getText());
+
+        assertEquals("Market watch notification", result.get(1).getSubject());
+        assertEquals("Pyerite", result.get(1).getText());
+    }
+
+    @Test
+    void startsANewMailAtTheBodyLimit() {
+        final char[] half = new char[MailCoalescer.MAX_BODY_LENGTH / 2];
+        Arrays.fill(half, 'x');
+        final String text = new String(half);
+
+        final List<MailCoalescer.CoalescedMail> result = sut.coalesce(Arrays.asList(
+                mail("1", 10, 42, "A", text), mail("2", 10, 42, "A", text), mail("3", 10, 42, "A", "short")));
+
+        assertEquals(2, result.size());
+        assertEquals(1, result.get(0).getParts().size());
+        assertEquals(2, result.get(1).getParts().size());
+        assertEquals("A", result.get(1).getSubject());
+        result.forEach(mail -> assertTrue(mail.getText().length() <= MailCoalescer.MAX_BODY_LENGTH));
+    }
+
+    @Test
+    void treatsAMissingSubjectAsEmpty() {
+        final List<MailCoalescer.CoalescedMail> result = sut.coalesce(Arrays.asList(
+                mail("1", 10, 42, null, "Tritanium"), mail("2", 10, 42, "News", "Hello")));
+
+        assertEquals(1, result.size());
+        assertEquals("Eve Market Watch - 2 messages", result.get(0).getSubject());
+        assertEquals("<b></b>\nTritanium\n\n<b>News</b>\nHello", result.get(0).getText());
+        assertEquals("", sut.coalesce(Arrays.asList(mail("3", 10, 7, null, "Pyerite"))).get(0).getSubject());
+    }
+
+    private static Mail mail(String id, int priority, int recipient, String subject, String text) {
+        final Mail mail = new Mail();
+        mail.setId(id);
+        mail.setPriority(priority);
+        mail.setRecipient(recipient);
+        mail.setSubject(subject);
+        mail.setText(text);
+        return mail;
+    }
+}
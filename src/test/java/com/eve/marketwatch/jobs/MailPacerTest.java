@@ -0,0 +1,57 @@
+package com.eve.marketwatch.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MailPacerTest {
+
+    private final MailPacer sut = new MailPacer(1_000);
+
+    @Test
+    void spacesMailsByTheInterval() {
+        assertEquals(0, sut.delayMillis(0));
+        sut.sent(0);
+        assertEquals(1_000, sut.delayMillis(0));
+        assertEquals(400, sut.delayMillis(600));
+        assertEquals(0, sut.delayMillis(2_000));
+    }
+
+    @Test
+    void backsOffWhenThrottledAndRecoversOnSuccess() {
+        sut.throttled(0, 0);
+        assertEquals(2_000, sut.getIntervalMillis());
+        sut.throttled(0, 30_000);
+        assertEquals(4_000, sut.getIntervalMillis());
+        assertEquals(30_000, sut.delayMillis(0));
+
+        sut.sent(30_000);
+        assertEquals(3_600, sut.getIntervalMillis());
+        for (int i = 0; i < 50; i++) {
+            sut.sent(30_000);
+        }
+        assertEquals(1_000, sut.getIntervalMillis());
+    }
+
+    @Test
+    void capsTheInterval() {
+        for (int i = 0; i < 20; i++) {
+            sut.throttled(0, 0);
+        }
+        assertEquals(MailPacer.MAX_INTERVAL_MILLIS, sut.getIntervalMillis());
+    }
+
+    @Test
+    void capsTheRequestedWait() {
+        sut.throttled(0, 24 * 60 * 60 * 1000);
+        assertEquals(MailPacer.MAX_INTERVAL_MILLIS, sut.delayMillis(0));
+    }
+
+    @Test
+    void readsTheRemainingTimeOfSpamErrors() {
+        // ticks of 100 nanoseconds
+        assertEquals(25_000, MailSender.getRetryAfterMillis("{\"error\":\"MailStopSpamming\",\"remaining_time\":250000000}"));
+        assertEquals(0, MailSender.getRetryAfterMillis("{\"error\":\"Bad request\"}"));
+        assertEquals(0, MailSender.getRetryAfterMillis("<html>"));
+    }
+}
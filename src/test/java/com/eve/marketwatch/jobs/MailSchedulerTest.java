@@ -0,0 +1,117 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.Mail;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MailSchedulerTest {
+
+    private static final long NOW = 1_000_000_000L;
+    private static final long AGING = 600_000;
+
+    @Test
+    void preferredClassCannotStarveTheOthers() {
+        final MailScheduler sut = new MailScheduler(AGING, 3, 0.75);
+        final List<MailCoalescer.CoalescedMail> mails = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            mails.add(mail(i, Mail.PRIORITY_NOTIFICATION, NOW));
+        }
+        mails.add(mail(100, Mail.PRIORITY_BULK, NOW));
+
+        final List<MailCoalescer.CoalescedMail> result = sut.schedule(mails, NOW);
+
+        assertEquals(41, result.size());
+        final int bulkPosition = positionOf(result, Mail.PRIORITY_BULK);
+        assertTrue(bulkPosition > 0 && bulkPosition < 10, "bulk mail at " + bulkPosition);
+    }
+
+    @Test
+    void agedClassIsServedFirst() {
+        final MailScheduler sut = new MailScheduler(AGING, 3, 0.75);
+        final List<MailCoalescer.CoalescedMail> mails = new ArrayList<>();
+        mails.add(mail(1, Mail.PRIORITY_NOTIFICATION, NOW));
+        mails.add(mail(2, Mail.PRIORITY_BULK, NOW - 10 * AGING));
+
+        final List<MailCoalescer.CoalescedMail> result = sut.schedule(mails, NOW);
+
+        assertEquals(0, positionOf(result, Mail.PRIORITY_BULK));
+    }
+
+    @Test
+    void capsTheMailsOfARecipientAcrossPages() {
+        final MailScheduler sut = new MailScheduler(AGING, 3, 0.75);
+        final List<MailCoalescer.CoalescedMail> page = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            page.add(mail(42, Mail.PRIORITY_NOTIFICATION, NOW + i));
+        }
+        page.add(mail(7, Mail.PRIORITY_NOTIFICATION, NOW));
+
+        assertEquals(3, sut.schedule(page, NOW).size());
+        final List<MailCoalescer.CoalescedMail> next = new ArrayList<>();
+        next.add(mail(42, Mail.PRIORITY_NOTIFICATION, NOW + 2));
+        next.add(mail(42, Mail.PRIORITY_NOTIFICATION, NOW + 3));
+
+        assertEquals(1, sut.schedule(next, NOW).size());
+    }
+
+    @Test
+    void reportsCappedRecipientsSoTheNextPageSkipsThem() {
+        final MailScheduler sut = new MailScheduler(AGING, 3, 0.75);
+        final List<MailCoalescer.CoalescedMail> page = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            page.add(mail(42, Mail.PRIORITY_NOTIFICATION, NOW + i));
+        }
+
+        assertEquals(3, sut.schedule(page, NOW).size());
+        assertEquals(Collections.singleton(42), sut.getCappedRecipients());
+
+        // the next page is read without recipient 42 and reaches the mails behind it
+        final List<MailCoalescer.CoalescedMail> next = new ArrayList<>();
+        next.add(mail(7, Mail.PRIORITY_NOTIFICATION, NOW + 101));
+        next.add(mail(8, Mail.PRIORITY_BULK, NOW + 102));
+
+        assertEquals(2, sut.schedule(next, NOW).size());
+        assertEquals(Collections.singleton(42), sut.getCappedRecipients());
+    }
+
+    @Test
+    void reportsQueueLatencyPerClass() {
+        final MailMetrics metrics = new MailMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.posted(mail(i, Mail.PRIORITY_NOTIFICATION, NOW - i * 1000L), NOW);
+        }
+        metrics.posted(mail(1, Mail.PRIORITY_BULK, NOW - 5000), NOW);
+
+        assertEquals(50_000, metrics.percentile("notification", 50));
+        assertEquals(99_000, metrics.percentile("notification", 99));
+        assertEquals(5_000, metrics.percentile("bulk", 99));
+        assertEquals(-1, metrics.percentile("deactivation", 50));
+    }
+
+    private static int positionOf(List<MailCoalescer.CoalescedMail> mails, int priority) {
+        for (int i = 0; i < mails.size(); i++) {
+            if (mails.get(i).getPriority() == priority) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static MailCoalescer.CoalescedMail mail(int recipient, int priority, long created) {
+        final Mail mail = new Mail();
+        mail.setId(recipient + "-" + created);
+        mail.setRecipient(recipient);
+        mail.setPriority(priority);
+        mail.setCreated(new Date(created));
+        mail.setSubject("Subject");
+        mail.setText("Text");
+        return new MailCoalescer.CoalescedMail(mail);
+    }
+}
@@ -0,0 +1,74 @@
+package com.eve.marketwatch.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class MarketOrderReaderTest {
+
+    private static final String PAGE = "[" +
+            "{\"duration\":90,\"is_buy_order\":false,\"issued\":\"2019-01-01T12:00:00Z\",\"location_id\":60003760," +
+            "\"min_volume\":1,\"order_id\":1,\"price\":5.5,\"range\":\"region\",\"system_id\":30000142,\"type_id\":34," +
+            "\"volume_remain\":100,\"volume_total\":200}," +
+            "{\"is_buy_order\":false,\"location_id\":60003760,\"price\":5.49,\"type_id\":34,\"volume_remain\":50}," +
+            "{\"is_buy_order\":true,\"location_id\":60003760,\"price\":4.2,\"type_id\":34,\"volume_remain\":7}," +
+            "{\"is_buy_order\":false,\"location_id\":60003760,\"type_id\":35,\"volume_remain\":1000}," +
+            "{\"is_buy_order\":false,\"location_id\":60008494,\"type_id\":34,\"volume_remain\":1000}" +
+            "]";
+
+    private final MarketOrderReader sut = new MarketOrderReader(Collections.singleton(60003760L), Collections.singleton(34));
+
+    @Test
+    void foldsAcceptedOrdersPerSide() throws IOException {
+        final MarketVolumes volumes = sut.read(new StringReader(PAGE));
+
+        assertEquals(2, volumes.size());
+        assertEquals(150L, volumes.get(60003760L, 34, false));
+        assertEquals(7L, volumes.get(60003760L, 34, true));
+        assertEquals(-1L, volumes.get(60008494L, 34, false));
+        assertEquals(2, volumes.getOrderCount(60003760L, 34, false));
+        assertEquals(549L, volumes.getBestPrice(60003760L, 34, false));
+        assertEquals(420L, volumes.getBestPrice(60003760L, 34, true));
+    }
+
+    @Test
+    void emptyPage() throws IOException {
+        final MarketVolumes volumes = sut.read(new StringReader("[]"));
+
+        assertEquals(0, volumes.size());
+    }
+
+    @Test
+    void skipsOrdersThatCannotBePacked() throws IOException {
+        final int outOfRange = 1 << 22;
+        final MarketOrderReader reader = new MarketOrderReader(Collections.singleton(60003760L),
+                new HashSet<>(Arrays.asList(34, outOfRange)));
+
+        final MarketVolumes volumes = reader.read(new StringReader("[" +
+                "{\"is_buy_order\":false,\"location_id\":60003760,\"type_id\":" + outOfRange + ",\"volume_remain\":5}," +
+                "{\"is_buy_order\":false,\"location_id\":60003760,\"type_id\":34,\"volume_remain\":50}" +
+                "]"));
+
+        assertEquals(1, volumes.size());
+        assertEquals(50L, volumes.get(60003760L, 34, false));
+        assertEquals(-1L, volumes.get(60003760L, outOfRange, false));
+    }
+
+    @Test
+    void fingerprintDependsOnWatchedKeysOnly() {
+        final MarketOrderReader same = new MarketOrderReader(new HashSet<>(Collections.singletonList(60003760L)),
+                new HashSet<>(Collections.singletonList(34)));
+        final MarketOrderReader other = new MarketOrderReader(Collections.singleton(60003760L),
+                new HashSet<>(Arrays.asList(34, 35)));
+
+        assertEquals(sut.getFingerprint(), same.getFingerprint());
+        assertNotEquals(sut.getFingerprint(), other.getFingerprint());
+    }
+}
@@ -0,0 +1,38 @@
+package com.eve.marketwatch.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MarketPageCacheTest {
+
+    @Test
+    void survivesRestartOfTheContainerRuntime() throws IOException {
+        final Path file = Files.createTempDirectory("page-cache").resolve("cache.bin");
+        final MarketVolumes volumes = new MarketVolumes();
+        volumes.add(60003760L, 34, false, 150, 550);
+        volumes.add(60003760L, 34, true, 7, 420);
+
+        final MarketPageCache cache = new MarketPageCache(file);
+        final String key = MarketPageCache.key("/v1/markets/10000002/orders/", 3);
+        cache.put(key, "\"abc\"", 42L, 300, volumes);
+        cache.persist();
+
+        final MarketPageCache restored = new MarketPageCache(file);
+        assertNull(restored.get(key, 43L));
+        final MarketPageCache.Entry entry = restored.get(key, 42L);
+        assertNotNull(entry);
+        assertEquals("\"abc\"", entry.getEtag());
+        assertEquals(300, entry.getPageCount());
+
+        final MarketVolumes reused = restored.reuse(entry);
+        assertEquals(150L, reused.get(60003760L, 34, false));
+        assertEquals(7L, reused.get(60003760L, 34, true));
+    }
+}
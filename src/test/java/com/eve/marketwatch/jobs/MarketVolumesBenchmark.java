@@ -0,0 +1,122 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.esi.MarketOrderResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the former HashMap based volume computation of the MarketParser with {@link MarketVolumes} on a synthetic
+ * region of 500k orders.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.mainClass=com.eve.marketwatch.jobs.MarketVolumesBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarketVolumesBenchmark {
+
+    private static final int ORDERS = 500_000;
+    private static final int STATIONS = 200;
+    private static final int TYPES = 15_000;
+    private static final int WATCHED_STATIONS = 20;
+    private static final int WATCHED_TYPES = 2_000;
+
+    private MarketOrderResponse[] orders;
+    private Set<Long> watchedLocations;
+    private Set<Integer> watchedTypes;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        orders = new MarketOrderResponse[ORDERS];
+        for (int i = 0; i < ORDERS; i++) {
+            final MarketOrderResponse order = new MarketOrderResponse();
+            order.setLocationId(60000000L + random.nextInt(STATIONS));
+            order.setTypeId(1 + random.nextInt(TYPES));
+            order.setBuyOrder(random.nextBoolean());
+            order.setVolumeRemain(1 + random.nextInt(10_000));
+            order.setPrice(0.01 * (1 + random.nextInt(1_000_000)));
+            orders[i] = order;
+        }
+        watchedLocations = new HashSet<>();
+        for (int i = 0; i < WATCHED_STATIONS; i++) {
+            watchedLocations.add(60000000L + i);
+        }
+        watchedTypes = new HashSet<>();
+        for (int i = 1; i <= WATCHED_TYPES; i++) {
+            watchedTypes.add(i);
+        }
+    }
+
+    @Benchmark
+    public void hashMapPerStructureAndSide(Blackhole blackhole) {
+        final List<MarketOrderResponse> marketOrders = Stream.of(orders)
+                .filter(m -> watchedTypes.contains(m.getTypeId()))
+                .collect(Collectors.toList());
+        for (final Long locationId : watchedLocations) {
+            final List<MarketOrderResponse> structureOrders = marketOrders.stream()
+                    .filter(o -> o.getLocationId() == locationId)
+                    .collect(Collectors.toList());
+            blackhole.consume(computeVolumes(filterOrderType(structureOrders, false)));
+            blackhole.consume(computeVolumes(filterOrderType(structureOrders, true)));
+        }
+    }
+
+    @Benchmark
+    public void packedTableSinglePass(Blackhole blackhole) {
+        final MarketVolumes volumes = new MarketVolumes();
+        for (final MarketOrderResponse order : orders) {
+            if (watchedLocations.contains(order.getLocationId()) && watchedTypes.contains(order.getTypeId())) {
+                volumes.add(order.getLocationId(), order.getTypeId(), order.isBuyOrder(), order.getVolumeRemain(),
+                        MarketVolumes.toPriceCents(order.getPrice()));
+            }
+        }
+        blackhole.consume(volumes);
+    }
+
+    private static List<MarketOrderResponse> filterOrderType(List<MarketOrderResponse> marketOrders, boolean isBuy) {
+        return marketOrders.stream()
+                .filter(marketOrderResponse -> isBuy == marketOrderResponse.isBuyOrder())
+                .collect(Collectors.toList());
+    }
+
+    private static HashMap<Integer, Long> computeVolumes(List<MarketOrderResponse> marketOrders) {
+        final HashMap<Integer, Long> volumes = new HashMap<>();
+        for (final MarketOrderResponse order : marketOrders) {
+            volumes.computeIfPresent(order.getTypeId(), (integer, aLong) -> aLong + order.getVolumeRemain());
+            volumes.putIfAbsent(order.getTypeId(), (long) order.getVolumeRemain());
+        }
+        return volumes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MarketVolumesBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
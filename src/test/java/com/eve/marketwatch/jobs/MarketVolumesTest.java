@@ -0,0 +1,81 @@
+package com.eve.marketwatch.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarketVolumesTest {
+
+    @Test
+    void packedKeysRoundTrip() {
+        final long key = MarketVolumes.pack(1035466617946L, 44992, true);
+
+        assertEquals(1035466617946L, MarketVolumes.locationId(key));
+        assertEquals(44992, MarketVolumes.typeId(key));
+        assertTrue(MarketVolumes.isBuy(key));
+        assertFalse(MarketVolumes.isBuy(MarketVolumes.pack(1035466617946L, 44992, false)));
+    }
+
+    @Test
+    void rejectsKeysThatDoNotFit() {
+        assertThrows(IllegalArgumentException.class, () -> MarketVolumes.pack(0, 34, false));
+        assertThrows(IllegalArgumentException.class, () -> MarketVolumes.pack(60003760L, 1 << 22, false));
+    }
+
+    @Test
+    void aggregatesBothSidesAcrossResizes() {
+        final MarketVolumes sut = new MarketVolumes(2);
+        for (int typeId = 1; typeId <= 1000; typeId++) {
+            sut.add(60003760L, typeId, false, typeId, 200);
+            sut.add(60003760L, typeId, false, 1, 100);
+            sut.add(60003760L, typeId, true, 5, 90);
+        }
+
+        assertEquals(2000, sut.size());
+        assertEquals(1001L, sut.get(60003760L, 1000, false));
+        assertEquals(5L, sut.get(60003760L, 1000, true));
+
+        final AtomicLong total = new AtomicLong();
+        sut.forEach((locationId, typeId, isBuy, volume, orderCount, bestPrice) -> total.addAndGet(volume));
+        assertEquals(500500L + 1000L + 5000L, total.get());
+    }
+
+    @Test
+    void mergesPartialAggregates() {
+        final MarketVolumes first = new MarketVolumes();
+        first.add(60003760L, 34, false, 10, 500);
+        final MarketVolumes second = new MarketVolumes();
+        second.add(60003760L, 34, false, 5, 450);
+        second.add(60003760L, 35, true, 3, 300);
+
+        first.addAll(second);
+
+        assertEquals(15L, first.get(60003760L, 34, false));
+        assertEquals(3L, first.get(60003760L, 35, true));
+        assertEquals(-1L, first.get(60003760L, 35, false));
+        assertEquals(2, first.getOrderCount(60003760L, 34, false));
+        assertEquals(450L, first.getBestPrice(60003760L, 34, false));
+    }
+
+    @Test
+    void tracksOrderCountAndBestPricePerSide() {
+        final MarketVolumes sut = new MarketVolumes();
+        sut.add(60003760L, 34, false, 10, 550);
+        sut.add(60003760L, 34, false, 10, 499);
+        sut.add(60003760L, 34, false, 10, 600);
+        sut.add(60003760L, 34, true, 10, 400);
+        sut.add(60003760L, 34, true, 10, 450);
+
+        assertEquals(3, sut.getOrderCount(60003760L, 34, false));
+        assertEquals(499L, sut.getBestPrice(60003760L, 34, false));
+        assertEquals(2, sut.getOrderCount(60003760L, 34, true));
+        assertEquals(450L, sut.getBestPrice(60003760L, 34, true));
+        assertEquals(0, sut.getOrderCount(60003760L, 35, true));
+        assertEquals(-1L, sut.getBestPrice(60003760L, 35, true));
+    }
+}
@@ -0,0 +1,39 @@
+package com.eve.marketwatch.jobs;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarketWorkUnitTest {
+
+    @Test
+    void survivesTheRoundTripThroughTheInvocationPayload() {
+        final Gson gson = new Gson();
+        final String json = gson.toJson(Collections.singletonMap(MarketParser.WORK_UNIT_KEY,
+                MarketWorkUnit.region(10000002, Arrays.asList(60003760L, 60008494L), Arrays.asList(34, 35))));
+        final Map<?, ?> payload = gson.fromJson(json, Map.class);
+
+        final MarketWorkUnit workUnit = MarketWorkUnit.fromPayload(payload.get(MarketParser.WORK_UNIT_KEY));
+
+        assertTrue(workUnit.isRegion());
+        assertEquals(10000002, workUnit.getRegionId().intValue());
+        assertEquals(Arrays.asList(60003760L, 60008494L), workUnit.getLocationIds());
+        assertEquals(Arrays.asList(34, 35), workUnit.getTypeIds());
+    }
+
+    @Test
+    void structureBatchHasNoRegion() {
+        final MarketWorkUnit workUnit = MarketWorkUnit.fromPayload(
+                Collections.singletonMap("locationIds", Collections.singletonList(1022734985679L)));
+
+        assertFalse(workUnit.isRegion());
+        assertEquals(Collections.singletonList(1022734985679L), workUnit.getLocationIds());
+    }
+}
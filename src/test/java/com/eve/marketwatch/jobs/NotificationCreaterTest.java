@@ -0,0 +1,48 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemWatch;
+import com.eve.marketwatch.model.dao.Structure;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotificationCreaterTest {
+
+    private final NotificationCreater sut = new NotificationCreater(null, null, null, null);
+
+    @Test
+    void writesOneSectionPerStructure() {
+        final Structure jita = new Structure();
+        jita.setStructureId(60003760L);
+        jita.setTypeId(52678);
+        jita.setStructureName("Jita IV - Moon 4 - Caldari Navy Assembly Plant");
+        final Map<Long, List<ItemWatch>> watchesByStructure = new LinkedHashMap<>();
+        watchesByStructure.put(60003760L, Arrays.asList(watch(34, "Tritanium", null), watch(44992, "PLEX", "price")));
+        watchesByStructure.put(1027847407700L, Collections.singletonList(watch(608, "Atron", "orders")));
+
+        final String text = sut.buildText(watchesByStructure, Collections.singletonMap(60003760L, jita));
+
+        final int jitaSection = text.indexOf("<url=showinfo:52678//60003760>Jita IV - Moon 4 - Caldari Navy Assembly Plant</url>");
+        final int unknownSection = text.indexOf("Location 1027847407700");
+        assertTrue(jitaSection > 0);
+        assertTrue(unknownSection > jitaSection);
+        assertTrue(text.indexOf("Sell orders for <url=showinfo:34>Tritanium</url> are below 10 units.") > jitaSection);
+        assertTrue(text.indexOf("Lowest sell price for <url=showinfo:44992>PLEX</url> is below 10 ISK.") > jitaSection);
+        assertTrue(text.indexOf("Sell order count for <url=showinfo:608>Atron</url> is below 10 orders.") > unknownSection);
+    }
+
+    private static ItemWatch watch(int typeId, String typeName, String metric) {
+        final ItemWatch watch = new ItemWatch();
+        watch.setTypeId(typeId);
+        watch.setTypeName(typeName);
+        watch.setMetric(metric);
+        watch.setThreshold(10);
+        return watch;
+    }
+}
@@ -0,0 +1,23 @@
+package com.eve.marketwatch.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    @Test
+    void backoffGrowsWithJitterUpToTheMaximum() {
+        final RetryPolicy sut = new RetryPolicy(4, 1000, 8000, new Random(42));
+        for (int i = 0; i < 100; i++) {
+            final long first = sut.backoffMillis(1);
+            assertTrue(first >= 500 && first <= 1000, "first backoff " + first);
+            final long third = sut.backoffMillis(3);
+            assertTrue(third >= 2000 && third <= 4000, "third backoff " + third);
+            final long capped = sut.backoffMillis(10);
+            assertTrue(capped >= 4000 && capped <= 8000, "capped backoff " + capped);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemSnapshot;
+import com.eve.marketwatch.model.dao.ItemWatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how {@link WatchChecker#checkWatches} scales with the number of watches. Every market key is watched five
+ * times on average and a tenth of the keys has no snapshot. After the first invocation the watches are in their
+ * steady state, as they are between two market parsings, so only few of them change.
+ * <p>
+ * checkWatches includes building the {@link WatchIndex}, evaluateIndex only evaluates an index that has been built
+ * before.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.mainClass=com.eve.marketwatch.jobs.WatchCheckerBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WatchCheckerBenchmark {
+
+    private static final int WATCHES_PER_KEY = 5;
+    private static final int STATIONS = 2_000;
+
+    @Param({"10000", "100000", "1000000"})
+    private int watchCount;
+
+    private final WatchChecker sut = new WatchChecker(null, null);
+    private final Instant now = Instant.now();
+    private List<ItemWatch> watches;
+    private List<ItemSnapshot> snapshots;
+    private WatchIndex index;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final int keys = Math.max(1, watchCount / WATCHES_PER_KEY);
+        snapshots = new ArrayList<>(keys);
+        watches = new ArrayList<>(watchCount);
+        final Date created = Date.from(now.minusSeconds(86_400));
+        for (int i = 0; i < watchCount; i++) {
+            final int key = random.nextInt(keys);
+            final ItemWatch watch = new ItemWatch();
+            watch.setLocationId(60000000L + key % STATIONS);
+            watch.setTypeId(1 + key / STATIONS);
+            watch.setBuy(random.nextBoolean());
+            watch.setThreshold(random.nextInt(10_000));
+            watch.setComparator(random.nextBoolean() ? "lt" : "ge");
+            watch.setCreated(created);
+            watches.add(watch);
+        }
+        for (int key = 0; key < keys; key++) {
+            for (final boolean isBuy : new boolean[]{false, true}) {
+                if (random.nextInt(10) == 0) {
+                    continue;
+                }
+                final ItemSnapshot snapshot = new ItemSnapshot();
+                snapshot.setLocationId(60000000L + key % STATIONS);
+                snapshot.setTypeId(1 + key / STATIONS);
+                snapshot.setBuy(isBuy);
+                snapshot.setAmount(random.nextInt(10_000));
+                snapshots.add(snapshot);
+            }
+        }
+        index = new WatchIndex(watches);
+    }
+
+    @Benchmark
+    public List<ItemWatch> checkWatches() {
+        return sut.checkWatches(watches, snapshots, now);
+    }
+
+    @Benchmark
+    public int evaluateIndex() {
+        final int[] changes = new int[1];
+        for (final ItemSnapshot snapshot : snapshots) {
+            final long key = MarketVolumes.pack(snapshot.getLocationId(), snapshot.getTypeId(), snapshot.isBuy());
+            index.evaluate(key, metric -> snapshot.getAmount(), watch -> changes[0]++);
+        }
+        return changes[0];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WatchCheckerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
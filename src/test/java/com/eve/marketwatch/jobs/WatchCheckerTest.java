@@ -0,0 +1,67 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemSnapshot;
+import com.eve.marketwatch.model.dao.ItemWatch;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WatchCheckerTest {
+
+    private final WatchChecker sut = new WatchChecker(null, null);
+    private final Instant now = Instant.now();
+
+    @Test
+    void matchesWatchesWithTheSnapshotOfTheirSide() {
+        final ItemWatch sellWatch = watch(false, 100);
+        final ItemWatch buyWatch = watch(true, 100);
+        final ItemWatch otherLocationWatch = watch(false, 100);
+        otherLocationWatch.setLocationId(60008494L);
+        otherLocationWatch.setCreated(Date.from(now));
+
+        final List<ItemWatch> changed = sut.checkWatches(Arrays.asList(sellWatch, buyWatch, otherLocationWatch),
+                Arrays.asList(snapshot(false, 50), snapshot(true, 500)), now);
+
+        assertEquals(Collections.singletonList(sellWatch), changed);
+        assertTrue(sellWatch.isTriggered());
+        assertFalse(buyWatch.isTriggered());
+        // too young to be triggered by a missing snapshot
+        assertFalse(otherLocationWatch.isTriggered());
+    }
+
+    @Test
+    void triggersOldWatchesWithoutSnapshot() {
+        final ItemWatch watch = watch(false, 100);
+
+        assertEquals(Collections.singletonList(watch), sut.checkWatches(Collections.singletonList(watch),
+                Collections.emptyList(), now));
+        assertTrue(watch.isTriggered());
+    }
+
+    private ItemWatch watch(boolean isBuy, long threshold) {
+        final ItemWatch watch = new ItemWatch();
+        watch.setLocationId(60003760L);
+        watch.setTypeId(34);
+        watch.setBuy(isBuy);
+        watch.setThreshold(threshold);
+        watch.setCreated(Date.from(now.minusSeconds(3600)));
+        return watch;
+    }
+
+    private static ItemSnapshot snapshot(boolean isBuy, long amount) {
+        final ItemSnapshot snapshot = new ItemSnapshot();
+        snapshot.setLocationId(60003760L);
+        snapshot.setTypeId(34);
+        snapshot.setBuy(isBuy);
+        snapshot.setAmount(amount);
+        return snapshot;
+    }
+}
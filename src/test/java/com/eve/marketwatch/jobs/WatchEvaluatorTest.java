@@ -0,0 +1,62 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemWatch;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class WatchEvaluatorTest {
+
+    private final WatchEvaluator sut = new WatchEvaluator();
+
+    @Test
+    void triggersOnceBelowThreshold() {
+        final ItemWatch watch = watch(null, null, 100);
+
+        assertEquals(WatchEvaluator.Outcome.TRIGGER, sut.evaluate(watch, 99));
+        sut.apply(watch, WatchEvaluator.Outcome.TRIGGER);
+        assertEquals(WatchEvaluator.Outcome.NONE, sut.evaluate(watch, 99));
+        assertEquals(WatchEvaluator.Outcome.RESET, sut.evaluate(watch, 100));
+    }
+
+    @Test
+    void comparesPriceThresholdsInIsk() {
+        final ItemWatch watch = watch("price", "ge", 5);
+
+        assertEquals(WatchEvaluator.Outcome.NONE, sut.evaluate(watch, 499));
+        assertEquals(WatchEvaluator.Outcome.TRIGGER, sut.evaluate(watch, 500));
+    }
+
+    @Test
+    void triggersMissingOrdersOnlyForLowerBoundsOnVolumes() {
+        assertEquals(WatchEvaluator.Outcome.TRIGGER, sut.evaluateMissing(watch(null, null, 0)));
+        assertEquals(WatchEvaluator.Outcome.TRIGGER, sut.evaluateMissing(watch("orders", "le", 1)));
+        assertEquals(WatchEvaluator.Outcome.NONE, sut.evaluateMissing(watch("volume", "le", 0)));
+        assertEquals(WatchEvaluator.Outcome.NONE, sut.evaluateMissing(watch("volume", "gt", 10)));
+        assertEquals(WatchEvaluator.Outcome.NONE, sut.evaluateMissing(watch("price", "lt", 10)));
+    }
+
+    @Test
+    void readsTheWatchedValueFromVolumes() {
+        final MarketVolumes volumes = new MarketVolumes();
+        volumes.add(60003760L, 34, false, 10, 550);
+        volumes.add(60003760L, 34, false, 5, 499);
+        final long key = MarketVolumes.pack(60003760L, 34, false);
+
+        assertEquals(Long.valueOf(15), WatchEvaluator.value(volumes, key, "volume"));
+        assertEquals(Long.valueOf(2), WatchEvaluator.value(volumes, key, "orders"));
+        assertEquals(Long.valueOf(499), WatchEvaluator.value(volumes, key, "price"));
+        assertNull(WatchEvaluator.value(volumes, MarketVolumes.pack(60003760L, 34, true), "volume"));
+    }
+
+    private static ItemWatch watch(String metric, String comparator, long threshold) {
+        final ItemWatch watch = new ItemWatch();
+        watch.setLocationId(60003760L);
+        watch.setTypeId(34);
+        watch.setMetric(metric);
+        watch.setComparator(comparator);
+        watch.setThreshold(threshold);
+        return watch;
+    }
+}
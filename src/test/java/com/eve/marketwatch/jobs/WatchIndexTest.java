@@ -0,0 +1,82 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemWatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WatchIndexTest {
+
+    private static final String[] COMPARATORS = {null, "lt", "le", "gt", "ge"};
+    private static final String[] METRICS = {null, "orders", "price"};
+    private static final long KEY = MarketVolumes.pack(60003760L, 34, false);
+
+    @Test
+    void agreesWithTheWatchEvaluator() {
+        final Random random = new Random(42);
+        final WatchEvaluator evaluator = new WatchEvaluator();
+        final List<ItemWatch> watches = new ArrayList<>();
+        final List<ItemWatch> expectedWatches = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final ItemWatch watch = new ItemWatch();
+            watch.setLocationId(60003760L);
+            watch.setTypeId(34);
+            watch.setComparator(COMPARATORS[random.nextInt(COMPARATORS.length)]);
+            watch.setMetric(METRICS[random.nextInt(METRICS.length)]);
+            watch.setThreshold(random.nextInt(20));
+            watch.setTriggered(random.nextBoolean());
+            watch.setMailSent(watch.isTriggered() && random.nextBoolean());
+            watches.add(watch);
+            expectedWatches.add(copy(watch));
+        }
+        final WatchIndex sut = new WatchIndex(watches);
+
+        for (int round = 0; round < 50; round++) {
+            final long value = random.nextInt(25);
+            final List<ItemWatch> changed = new ArrayList<>();
+            sut.evaluate(KEY, metric -> "price".equals(metric) ? value * 100 : value, changed::add);
+
+            int expectedChanges = 0;
+            for (int i = 0; i < watches.size(); i++) {
+                final ItemWatch expected = expectedWatches.get(i);
+                final long metricValue = "price".equals(expected.getMetric()) ? value * 100 : value;
+                if (evaluator.apply(expected, evaluator.evaluate(expected, metricValue))) {
+                    expectedChanges++;
+                }
+                assertEquals(expected.isTriggered(), watches.get(i).isTriggered(), "watch " + i + " in round " + round);
+                assertEquals(expected.isMailSent(), watches.get(i).isMailSent(), "watch " + i + " in round " + round);
+            }
+            assertEquals(expectedChanges, changed.size());
+        }
+    }
+
+    @Test
+    void leavesWatchesAloneWithoutValue() {
+        final ItemWatch watch = new ItemWatch();
+        watch.setLocationId(60003760L);
+        watch.setTypeId(34);
+        watch.setMetric("orders");
+        watch.setThreshold(10);
+        final WatchIndex sut = new WatchIndex(Collections.singletonList(watch));
+
+        sut.evaluate(KEY, metric -> "volume".equals(metric) ? 0L : null, w -> {
+            throw new AssertionError("unexpected change of " + w);
+        });
+        assertEquals(1, sut.keysAt(60003760L).size());
+    }
+
+    private static ItemWatch copy(ItemWatch watch) {
+        final ItemWatch copy = new ItemWatch();
+        copy.setComparator(watch.getComparator());
+        copy.setMetric(watch.getMetric());
+        copy.setThreshold(watch.getThreshold());
+        copy.setTriggered(watch.isTriggered());
+        copy.setMailSent(watch.isMailSent());
+        return copy;
+    }
+}
@@ -0,0 +1,42 @@
+package com.eve.marketwatch.jobs;
+
+import com.eve.marketwatch.model.dao.ItemWatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WatchStateWriterTest {
+
+    @Test
+    void writesOnlyWatchesThatDifferFromTheirStoredState() {
+        final List<ItemWatch> written = new ArrayList<>();
+        final WatchStateWriter sut = new WatchStateWriter(written::add);
+        final ItemWatch mailed = watch("mailed");
+        final ItemWatch flapping = watch("flapping");
+        sut.track(Arrays.asList(mailed, flapping));
+
+        mailed.setTriggered(true);
+        sut.changed(mailed);
+        mailed.setMailSent(true);
+        sut.changed(mailed);
+        flapping.setTriggered(true);
+        sut.changed(flapping);
+        flapping.reset();
+        sut.changed(flapping);
+
+        assertEquals(1, sut.flush());
+        assertEquals(Collections.singletonList(mailed), written);
+        assertEquals(0, sut.flush());
+    }
+
+    private static ItemWatch watch(String id) {
+        final ItemWatch watch = new ItemWatch();
+        watch.setId(id);
+        return watch;
+    }
+}
@@ -0,0 +1,48 @@
+package com.eve.marketwatch.model.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ItemSnapshotHistoryTest {
+
+    @Test
+    void decodesAppendedAmounts() {
+        final Instant first = Instant.parse("2019-03-01T10:30:00Z");
+        final Instant second = Instant.parse("2019-03-01T11:30:00Z");
+        final ItemSnapshotHistory history = new ItemSnapshotHistory();
+        history.setDay(ItemSnapshotHistory.toDay(first));
+        // the append of a change to 120 in between never reached the table
+        final List<Long> amounts = new ArrayList<>(ItemSnapshotHistory.encodePoint(first, 80));
+        amounts.addAll(ItemSnapshotHistory.encodePoint(second, 150));
+        history.setAmounts(amounts);
+
+        final List<ItemSnapshotHistory.Point> decoded = history.decode();
+
+        assertEquals(2, decoded.size());
+        assertEquals(first, decoded.get(0).getTime());
+        assertEquals(80, decoded.get(0).getAmount());
+        assertEquals(second, decoded.get(1).getTime());
+        assertEquals(150, decoded.get(1).getAmount());
+    }
+
+    @Test
+    void downsampleKeepsTheLastAmountPerInterval() {
+        final Instant from = Instant.parse("2019-03-01T00:00:00Z");
+        final List<ItemSnapshotHistory.Point> points = new ArrayList<>();
+        for (int hour = 0; hour < 48; hour++) {
+            points.add(new ItemSnapshotHistory.Point(from.plusSeconds(hour * 3600L), hour));
+        }
+
+        final List<ItemSnapshotHistory.Point> downsampled = ItemSnapshotHistoryRepository.downsample(points, from,
+                from.plusSeconds(48 * 3600L), 2);
+
+        assertEquals(2, downsampled.size());
+        assertEquals(23, downsampled.get(0).getAmount());
+        assertEquals(47, downsampled.get(1).getAmount());
+    }
+}
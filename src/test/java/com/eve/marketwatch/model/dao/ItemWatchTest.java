@@ -0,0 +1,25 @@
+package com.eve.marketwatch.model.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ItemWatchTest {
+
+    @Test
+    void isPendingOnlyWhileTriggeredAndNotMailed() {
+        final ItemWatch watch = new ItemWatch();
+        watch.setCharacterId(42);
+        assertNull(watch.getPendingNotification());
+
+        watch.setTriggered(true);
+        assertEquals(Integer.valueOf(42), watch.getPendingNotification());
+
+        watch.setMailSent(true);
+        assertNull(watch.getPendingNotification());
+
+        watch.reset();
+        assertNull(watch.getPendingNotification());
+    }
+}
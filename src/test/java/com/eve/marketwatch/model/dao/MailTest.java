@@ -0,0 +1,47 @@
+package com.eve.marketwatch.model.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MailTest {
+
+    @Test
+    void isInTheOutboxOnlyWhileNew() {
+        final Mail mail = mail(10, 1_000);
+        assertEquals("NEW", mail.getOutboxStatus());
+        assertEquals("99989-0000000001000", mail.getOutboxKey());
+
+        mail.setMailStatus(MailStatus.SENT);
+        assertNull(mail.getOutboxStatus());
+        assertNull(mail.getOutboxKey());
+
+        mail.setMailStatus(MailStatus.FAILED);
+        assertNull(mail.getOutboxStatus());
+        assertNull(mail.getOutboxKey());
+    }
+
+    @Test
+    void ordersTheOutboxByPriorityThenAge() {
+        final String urgentNew = mail(10, 2_000).getOutboxKey();
+        final String urgentOld = mail(10, 1_000).getOutboxKey();
+        final String bulkOld = mail(2, 0).getOutboxKey();
+
+        assertTrue(urgentOld.compareTo(urgentNew) < 0);
+        assertTrue(urgentNew.compareTo(bulkOld) < 0);
+        assertTrue(urgentNew.startsWith(Mail.outboxPrefix(10)));
+        assertTrue(bulkOld.startsWith(Mail.outboxPrefix(2)));
+    }
+
+    private static Mail mail(int priority, long created) {
+        final Mail mail = new Mail();
+        mail.setMailStatus(MailStatus.NEW);
+        mail.setPriority(priority);
+        mail.setCreated(new Date(created));
+        return mail;
+    }
+}
@@ -0,0 +1,15 @@
+package com.eve.marketwatch.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EsiClientTest {
+
+    @Test
+    void endpointReplacesIds() {
+        assertEquals("GET /v1/markets/{id}/orders/", EsiClient.endpoint("GET", "/v1/markets/10000002/orders/"));
+        assertEquals("GET /v2/universe/stations/{id}/", EsiClient.endpoint("GET", "/v2/universe/stations/60003760/"));
+        assertEquals("POST /v1/universe/ids/", EsiClient.endpoint("POST", "/v1/universe/ids/"));
+    }
+}
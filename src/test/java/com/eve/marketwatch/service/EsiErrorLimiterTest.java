@@ -0,0 +1,84 @@
+package com.eve.marketwatch.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EsiErrorLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final EsiErrorLimiter sut = new EsiErrorLimiter(now::get);
+
+    @Test
+    void shrinksConcurrencyWithTheBudget() {
+        assertEquals(EsiErrorLimiter.MAX_CONCURRENCY, sut.allowedConcurrency());
+
+        sut.update(100, 60);
+        assertEquals(EsiErrorLimiter.MAX_CONCURRENCY, sut.allowedConcurrency());
+
+        sut.update(25, 60);
+        assertEquals(EsiErrorLimiter.MAX_CONCURRENCY / 2, sut.allowedConcurrency());
+
+        sut.update(1, 60);
+        assertEquals(1, sut.allowedConcurrency());
+    }
+
+    @Test
+    void keepsTheLowestBudgetOfAWindow() {
+        sut.update(30, 60);
+        // a response that has been counted earlier but arrives later
+        sut.update(40, 60);
+        assertEquals(30, sut.allowedConcurrency());
+
+        // a shorter reset does not move the window back
+        sut.update(20, 10);
+        now.addAndGet(30_000);
+        sut.update(45, 30);
+        assertEquals(20, sut.allowedConcurrency());
+
+        // the next window starts with a fresh budget
+        now.addAndGet(60_000);
+        sut.update(45, 60);
+        assertEquals(45, sut.allowedConcurrency());
+    }
+
+    @Test
+    void throttlesRequestsBeyondTheAllowedConcurrency() throws InterruptedException {
+        sut.update(EsiErrorLimiter.PAUSE_REMAIN + 1, 60);
+        for (int i = 0; i < sut.allowedConcurrency(); i++) {
+            sut.acquire();
+        }
+
+        final Thread request = new Thread(sut::acquire);
+        request.start();
+        request.join(200);
+        assertTrue(request.isAlive());
+        assertEquals(1, sut.getThrottled());
+
+        sut.release();
+        request.join(1_000);
+        assertFalse(request.isAlive());
+        assertEquals(0, sut.getPaused());
+    }
+
+    @Test
+    void pausesUntilTheReset() throws InterruptedException {
+        sut.update(EsiErrorLimiter.PAUSE_REMAIN, 1);
+
+        final Thread request = new Thread(sut::acquire);
+        request.start();
+        request.join(200);
+        assertTrue(request.isAlive());
+        assertEquals(1, sut.getPaused());
+
+        // the paused request checks the clock again once the reset is due
+        now.addAndGet(1_000);
+        request.join(2_000);
+        assertFalse(request.isAlive());
+        assertEquals(EsiErrorLimiter.MAX_CONCURRENCY, sut.allowedConcurrency());
+    }
+}
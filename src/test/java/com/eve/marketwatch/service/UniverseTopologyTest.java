@@ -0,0 +1,63 @@
+package com.eve.marketwatch.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UniverseTopologyTest {
+
+    private static final long JITA_4_4 = 60003760L;
+    private static final long AMARR_VIII = 60008494L;
+
+    @Test
+    void readsTheBundledFormat() throws IOException {
+        final UniverseTopology topology;
+        try (InputStream in = getClass().getResourceAsStream("/universe/topology-fixture.bin")) {
+            topology = UniverseTopology.read(in);
+        }
+
+        assertEquals(OptionalInt.of(30000142), topology.findSystemId(JITA_4_4));
+        assertEquals(OptionalInt.of(20000020), topology.findConstellationId(30000142));
+        assertEquals(OptionalInt.of(10000002), topology.findRegionIdOfStation(JITA_4_4));
+        assertEquals(OptionalInt.of(10000043), topology.findRegionIdOfStation(AMARR_VIII));
+        assertFalse(topology.findRegionIdOfStation(60000004L).isPresent());
+        // player owned structure
+        assertFalse(topology.findRegionIdOfStation(1027847407700L).isPresent());
+    }
+
+    @Test
+    void rejectsUnknownFormats() {
+        assertThrows(IOException.class, () -> UniverseTopology.read(new ByteArrayInputStream(new byte[8])));
+    }
+
+    @Test
+    void readsWhatTheBuilderWrites() throws IOException {
+        final String stations = "stationID,security,dockingCostPerVolume,maxShipVolumeDockable,officeRentalCost,operationID,stationTypeID,corporationID,solarSystemID,constellationID,regionID,stationName\n"
+                + "60008494,0.5,0,50000000,10000,26,1932,1000086,30002187,20000322,10000043,\"Amarr VIII (Oris) - Emperor Family Academy\"\n"
+                + "60003760,0.9,0,50000000,10000,26,1531,1000035,30000142,20000020,10000002,\"Jita IV - Moon 4 - Caldari Navy Assembly Plant\"\n";
+        final String systems = "regionID,constellationID,solarSystemID,solarSystemName,x,y,z\n"
+                + "10000002,20000020,30000142,Jita,0,0,0\n"
+                + "10000043,20000322,30002187,Amarr,0,0,0\n";
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        UniverseTopologyBuilder.write(
+                UniverseTopologyBuilder.readStations(new BufferedReader(new StringReader(stations))),
+                UniverseTopologyBuilder.readSystems(new BufferedReader(new StringReader(systems))),
+                out);
+        final UniverseTopology topology = UniverseTopology.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(OptionalInt.of(10000002), topology.findRegionIdOfStation(JITA_4_4));
+        assertEquals(OptionalInt.of(10000043), topology.findRegionIdOfStation(AMARR_VIII));
+        assertEquals(OptionalInt.of(20000322), topology.findConstellationId(30002187));
+    }
+}